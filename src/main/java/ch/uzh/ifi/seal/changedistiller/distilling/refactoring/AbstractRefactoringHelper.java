@@ -20,11 +20,14 @@ package ch.uzh.ifi.seal.changedistiller.distilling.refactoring;
  * #L%
  */
 
+import java.util.List;
+
 import ch.uzh.ifi.seal.changedistiller.ast.ASTHelper;
 import ch.uzh.ifi.seal.changedistiller.distilling.Distiller;
 import ch.uzh.ifi.seal.changedistiller.model.entities.ClassHistory;
 import ch.uzh.ifi.seal.changedistiller.model.entities.StructureEntityVersion;
 import ch.uzh.ifi.seal.changedistiller.structuredifferencing.StructureNode;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.SimilarityHits;
 
 /**
  * Refactoring helpers support {@link Distiller} in deciding whether an added and a deleted class/field/method represent
@@ -159,6 +162,27 @@ public abstract class AbstractRefactoringHelper {
      */
     public abstract double similarity(StructureNode left, StructureNode right);
 
+    /**
+     * Calculates the similarities between several old entities and a new entity and returns the old entities that are
+     * subject of a refactoring with the new entity, i.e., whose similarity reaches the threshold.
+     * 
+     * @param lefts
+     *            the old entities
+     * @param right
+     *            the new entity
+     * @return the positions of the old entities that are subject of a refactoring, with their similarity
+     */
+    public SimilarityHits similarities(List<StructureNode> lefts, StructureNode right) {
+        SimilarityHits result = new SimilarityHits();
+        for (int k = 0; k < lefts.size(); k++) {
+            double similarity = similarity(lefts.get(k), right);
+            if (similarity >= getThreshold()) {
+                result.add(k, similarity);
+            }
+        }
+        return result;
+    }
+
     protected ClassHistory getClassHistory() {
         return fClassHistory;
     }
@@ -20,11 +20,15 @@ package ch.uzh.ifi.seal.changedistiller.distilling.refactoring;
  * #L%
  */
 
+import java.util.ArrayList;
+import java.util.List;
+
 import ch.uzh.ifi.seal.changedistiller.ast.ASTHelper;
 import ch.uzh.ifi.seal.changedistiller.model.entities.ClassHistory;
 import ch.uzh.ifi.seal.changedistiller.model.entities.StructureEntityVersion;
 import ch.uzh.ifi.seal.changedistiller.structuredifferencing.StructureNode;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.LevenshteinSimilarityCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.SimilarityHits;
 
 /**
  * Helps finding refactorings of classes.
@@ -86,4 +90,13 @@ public class ClassRefactoringHelper extends AbstractRefactoringHelper {
     public double similarity(StructureNode left, StructureNode right) {
         return new LevenshteinSimilarityCalculator().calculateSimilarity(left.getName(), right.getName());
     }
+
+    @Override
+    public SimilarityHits similarities(List<StructureNode> lefts, StructureNode right) {
+        List<String> names = new ArrayList<String>(lefts.size());
+        for (StructureNode left : lefts) {
+            names.add(left.getName());
+        }
+        return new LevenshteinSimilarityCalculator().calculateSimilarities(right.getName(), names, getThreshold());
+    }
 }
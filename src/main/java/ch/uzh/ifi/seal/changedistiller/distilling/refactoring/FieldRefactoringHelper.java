@@ -20,11 +20,15 @@ package ch.uzh.ifi.seal.changedistiller.distilling.refactoring;
  * #L%
  */
 
+import java.util.ArrayList;
+import java.util.List;
+
 import ch.uzh.ifi.seal.changedistiller.ast.ASTHelper;
 import ch.uzh.ifi.seal.changedistiller.model.entities.ClassHistory;
 import ch.uzh.ifi.seal.changedistiller.model.entities.StructureEntityVersion;
 import ch.uzh.ifi.seal.changedistiller.structuredifferencing.StructureNode;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.LevenshteinSimilarityCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.SimilarityHits;
 
 /**
  * Helps finding refactorings of fields.
@@ -94,4 +98,32 @@ public class FieldRefactoringHelper extends AbstractRefactoringHelper {
             return 1.0;
         }
     }
+
+    @Override
+    public SimilarityHits similarities(List<StructureNode> lefts, StructureNode right) {
+        // fields with the same name are fully similar, the others are compared by their content in one batch
+        List<Integer> renamed = new ArrayList<Integer>();
+        List<String> contents = new ArrayList<String>();
+        for (int k = 0; k < lefts.size(); k++) {
+            if (!lefts.get(k).getName().equals(right.getName())) {
+                renamed.add(k);
+                contents.add(lefts.get(k).getContent());
+            }
+        }
+        LevenshteinSimilarityCalculator calculator = new LevenshteinSimilarityCalculator();
+        SimilarityHits hits = calculator.calculateSimilarities(right.getContent(), contents, getThreshold());
+        SimilarityHits result = new SimilarityHits();
+        for (int k = 0, r = 0, h = 0; k < lefts.size(); k++) {
+            if ((r < renamed.size()) && (renamed.get(r) == k)) {
+                if ((h < hits.size()) && (hits.getCandidate(h) == r)) {
+                    result.add(k, hits.getSimilarity(h));
+                    h++;
+                }
+                r++;
+            } else if (1.0 >= getThreshold()) {
+                result.add(k, 1.0);
+            }
+        }
+        return result;
+    }
 }
@@ -20,11 +20,15 @@ package ch.uzh.ifi.seal.changedistiller.distilling.refactoring;
  * #L%
  */
 
+import java.util.ArrayList;
+import java.util.List;
+
 import ch.uzh.ifi.seal.changedistiller.ast.ASTHelper;
 import ch.uzh.ifi.seal.changedistiller.model.entities.ClassHistory;
 import ch.uzh.ifi.seal.changedistiller.model.entities.StructureEntityVersion;
 import ch.uzh.ifi.seal.changedistiller.structuredifferencing.StructureNode;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NGramsCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.SimilarityHits;
 
 /**
  * Helps finding refactorings of methods.
@@ -94,4 +98,13 @@ public class MethodRefactoringHelper extends AbstractRefactoringHelper {
         return new NGramsCalculator(2).calculateSimilarity(left.getName(), right.getName());
     }
 
+    @Override
+    public SimilarityHits similarities(List<StructureNode> lefts, StructureNode right) {
+        List<String> names = new ArrayList<String>(lefts.size());
+        for (StructureNode left : lefts) {
+            names.add(left.getName());
+        }
+        return new NGramsCalculator(2).calculateSimilarities(right.getName(), names, getThreshold());
+    }
+
 }
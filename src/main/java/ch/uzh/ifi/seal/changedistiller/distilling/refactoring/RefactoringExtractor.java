@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.List;
 
 import ch.uzh.ifi.seal.changedistiller.structuredifferencing.StructureNode;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.SimilarityHits;
 
 /**
  * Provides a method to extract refactorings from a list of added and a list of deleted entities.
@@ -60,13 +61,21 @@ public final class RefactoringExtractor {
         for (RefactoringCandidate rightCandidate : addedEntities) {
             StructureNode right = rightCandidate.getDiffNode().getRight();
 
+            List<RefactoringCandidate> leftCandidates = new ArrayList<RefactoringCandidate>();
+            List<StructureNode> lefts = new ArrayList<StructureNode>();
             for (RefactoringCandidate leftCandidate : deletedEntities) {
                 StructureNode left = leftCandidate.getDiffNode().getLeft();
-                if (left.isOfSameTypeAs(right) && refactoringHelper.isRefactoring(left, right)) {
-                    double similarity = refactoringHelper.similarity(left, right);
-                    refactoringCandidates.add(new RefactoringPair(leftCandidate, rightCandidate, similarity));
+                if (left.isOfSameTypeAs(right)) {
+                    leftCandidates.add(leftCandidate);
+                    lefts.add(left);
                 }
             }
+            // the helper compares the new entity with all old entities of the same type at once
+            SimilarityHits hits = refactoringHelper.similarities(lefts, right);
+            for (int h = 0; h < hits.size(); h++) {
+                RefactoringCandidate leftCandidate = leftCandidates.get(hits.getCandidate(h));
+                refactoringCandidates.add(new RefactoringPair(leftCandidate, rightCandidate, hits.getSimilarity(h)));
+            }
         }
 
         Collections.sort(refactoringCandidates);
@@ -0,0 +1,298 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Order-statistics index over the children of a {@link Node} that records which children are marked "in order".
+ * <p>
+ * The children are kept in an implicit treap, i.e., a randomized balanced tree ordered by child position, whose
+ * entries carry the size and the number of "in order" entries of their subtree. Position and rank queries, inserts,
+ * removals, and flag changes therefore cost O(log n) instead of a scan over the siblings.
+ * 
+ * @see TreeDifferencer
+ */
+class ChildSequence {
+
+    private final Map<Node, Entry> fEntries = new IdentityHashMap<Node, Entry>();
+    private final Random fPriorities = new Random(42);
+    private Entry fRoot;
+
+    /**
+     * Creates a new child sequence with the current children of the given parent, all marked "out of order".
+     * 
+     * @param parent
+     *            whose children make up the sequence
+     */
+    @SuppressWarnings("rawtypes")
+    ChildSequence(Node parent) {
+        for (Enumeration e = parent.children(); e.hasMoreElements();) {
+            add((Node) e.nextElement(), size(), false);
+        }
+    }
+
+    int size() {
+        return size(fRoot);
+    }
+
+    /**
+     * Inserts the child at the given position.
+     * 
+     * @param child
+     *            to insert
+     * @param position
+     *            of the child in the sequence
+     * @param inOrder
+     *            whether the child is marked "in order"
+     */
+    void add(Node child, int position, boolean inOrder) {
+        Entry entry = new Entry(child, fPriorities.nextInt(), inOrder);
+        fEntries.put(child, entry);
+        Entry[] parts = split(fRoot, position);
+        fRoot = merge(merge(parts[0], entry), parts[1]);
+        fRoot.fParent = null;
+    }
+
+    /**
+     * Removes the child from the sequence.
+     * 
+     * @param child
+     *            to remove
+     */
+    void remove(Node child) {
+        int position = indexOf(child);
+        fEntries.remove(child);
+        Entry[] parts = split(fRoot, position);
+        Entry[] rest = split(parts[1], 1);
+        fRoot = merge(parts[0], rest[1]);
+        if (fRoot != null) {
+            fRoot.fParent = null;
+        }
+    }
+
+    /**
+     * Returns the position of the child in the sequence.
+     * 
+     * @param child
+     *            to get the position for
+     * @return the position of the child
+     */
+    int indexOf(Node child) {
+        Entry entry = fEntries.get(child);
+        int result = size(entry.fLeft);
+        for (Entry e = entry; e.fParent != null; e = e.fParent) {
+            if (e.fParent.fRight == e) {
+                result += size(e.fParent.fLeft) + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the children in the order of the sequence.
+     * 
+     * @return the children of the sequence
+     */
+    List<Node> getChildren() {
+        List<Node> result = new ArrayList<Node>(size());
+        Deque<Entry> path = new ArrayDeque<Entry>();
+        Entry e = fRoot;
+        while ((e != null) || !path.isEmpty()) {
+            if (e != null) {
+                path.push(e);
+                e = e.fLeft;
+            } else {
+                e = path.pop();
+                result.add(e.fNode);
+                e = e.fRight;
+            }
+        }
+        return result;
+    }
+
+    boolean isInOrder(Node child) {
+        Entry entry = fEntries.get(child);
+        return (entry != null) && entry.fInOrder;
+    }
+
+    /**
+     * Marks the child "in order" or "out of order".
+     * 
+     * @param child
+     *            to mark
+     * @param inOrder
+     *            whether the child is marked "in order"
+     */
+    void setInOrder(Node child, boolean inOrder) {
+        Entry entry = fEntries.get(child);
+        if (entry.fInOrder != inOrder) {
+            entry.fInOrder = inOrder;
+            for (Entry e = entry; e != null; e = e.fParent) {
+                e.update();
+            }
+        }
+    }
+
+    /**
+     * Marks all children "out of order".
+     */
+    void setAllOutOfOrder() {
+        for (Entry entry : fEntries.values()) {
+            entry.fInOrder = false;
+            entry.fInOrderCount = 0;
+        }
+    }
+
+    /**
+     * Returns the number of children left of the given child that are marked "in order".
+     * 
+     * @param child
+     *            up to which the children are counted
+     * @return the number of children marked "in order" left of the child
+     */
+    int countInOrderBefore(Node child) {
+        Entry entry = fEntries.get(child);
+        int result = inOrderCount(entry.fLeft);
+        for (Entry e = entry; e.fParent != null; e = e.fParent) {
+            if (e.fParent.fRight == e) {
+                result += inOrderCount(e.fParent.fLeft) + (e.fParent.fInOrder ? 1 : 0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the child that is the <code>rank</code>th (counting from zero) among the children marked "in order".
+     * 
+     * @param rank
+     *            of the child among the children marked "in order"
+     * @return the child with the given rank
+     */
+    Node getInOrder(int rank) {
+        int remaining = rank;
+        Entry e = fRoot;
+        while (e != null) {
+            int left = inOrderCount(e.fLeft);
+            if (remaining < left) {
+                e = e.fLeft;
+            } else if (e.fInOrder && (remaining == left)) {
+                return e.fNode;
+            } else {
+                remaining -= left + (e.fInOrder ? 1 : 0);
+                e = e.fRight;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits the treap into the first <code>position</code> entries and the rest.
+     */
+    private static Entry[] split(Entry entry, int position) {
+        if (entry == null) {
+            return new Entry[2];
+        }
+        Entry[] result;
+        if (position <= size(entry.fLeft)) {
+            result = split(entry.fLeft, position);
+            entry.setLeft(result[1]);
+            result[1] = entry;
+        } else {
+            result = split(entry.fRight, position - size(entry.fLeft) - 1);
+            entry.setRight(result[0]);
+            result[0] = entry;
+        }
+        entry.update();
+        entry.fParent = null;
+        return result;
+    }
+
+    private static Entry merge(Entry left, Entry right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.fPriority > right.fPriority) {
+            left.setRight(merge(left.fRight, right));
+            left.update();
+            return left;
+        }
+        right.setLeft(merge(left, right.fLeft));
+        right.update();
+        return right;
+    }
+
+    private static int size(Entry entry) {
+        return entry == null ? 0 : entry.fSize;
+    }
+
+    private static int inOrderCount(Entry entry) {
+        return entry == null ? 0 : entry.fInOrderCount;
+    }
+
+    private static final class Entry {
+
+        private final Node fNode;
+        private final int fPriority;
+        private boolean fInOrder;
+        private int fSize;
+        private int fInOrderCount;
+        private Entry fLeft;
+        private Entry fRight;
+        private Entry fParent;
+
+        Entry(Node node, int priority, boolean inOrder) {
+            fNode = node;
+            fPriority = priority;
+            fInOrder = inOrder;
+            update();
+        }
+
+        void setLeft(Entry left) {
+            fLeft = left;
+            if (left != null) {
+                left.fParent = this;
+            }
+        }
+
+        void setRight(Entry right) {
+            fRight = right;
+            if (right != null) {
+                right.fParent = this;
+            }
+        }
+
+        void update() {
+            fSize = size(fLeft) + size(fRight) + 1;
+            fInOrderCount = inOrderCount(fLeft) + inOrderCount(fRight) + (fInOrder ? 1 : 0);
+        }
+    }
+}
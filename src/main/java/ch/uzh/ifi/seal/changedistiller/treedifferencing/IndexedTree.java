@@ -0,0 +1,318 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flat, array-backed snapshot of a {@link Node} tree.
+ * <p>
+ * The nodes are numbered in post-order, and the structure is held in integer arrays (parent, first child, next
+ * sibling, pre-order rank), together with the ids of the labels and values from a {@link SymbolTable}. Traversals
+ * and structural checks therefore run over primitive arrays instead of the {@link Node} objects and their
+ * enumerations.
+ * <p>
+ * State that belongs to a single matching or differencing run, e.g., whether a node is matched, is held in tables
+ * addressed by these indices instead of on the nodes. The tree itself is only read, such that it can be matched
+ * against several other trees at the same time.
+ * 
+ * @see TreeMatcher
+ */
+public class IndexedTree {
+
+    private static final int NONE = -1;
+
+    private final Node[] fNodes;
+    private final Map<Node, Integer> fIndices;
+
+    private final int[] fParent;
+    private final int[] fFirstChild;
+    private final int[] fNextSibling;
+    private final int[] fPreOrder;
+    private final int[] fSize;
+    private final int[] fLeaves;
+    private final int[] fLabels;
+    private final int[] fValues;
+    private final int fRoot;
+
+    /**
+     * Creates a new indexed tree of the given root with its own {@link SymbolTable}. The tree must not change while
+     * it is indexed.
+     * 
+     * @param root
+     *            of the tree to index
+     */
+    public IndexedTree(Node root) {
+        this(root, new SymbolTable());
+    }
+
+    /**
+     * Creates a new indexed tree of the given root. The tree must not change while it is indexed.
+     * 
+     * @param root
+     *            of the tree to index
+     * @param symbols
+     *            that assign the ids of labels and values; trees to compare must share the symbol table
+     */
+    public IndexedTree(Node root, SymbolTable symbols) {
+        // reversed pre-order traversal that visits the children from right to left
+        List<Node> nodes = new ArrayList<Node>();
+        Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            nodes.add(node);
+            for (int i = 0; i < node.getChildCount(); i++) {
+                stack.push((Node) node.getChildAt(i));
+            }
+        }
+        Collections.reverse(nodes);
+        int size = nodes.size();
+        fNodes = nodes.toArray(new Node[size]);
+        fIndices = new IdentityHashMap<Node, Integer>(size);
+        for (int i = 0; i < size; i++) {
+            fIndices.put(fNodes[i], i);
+        }
+
+        fParent = new int[size];
+        fSize = new int[size];
+        fFirstChild = new int[size];
+        fNextSibling = new int[size];
+        fLabels = new int[size];
+        fValues = new int[size];
+        int leaves = 0;
+        fParent[size - 1] = NONE;
+        for (int i = 0; i < size; i++) {
+            Node node = fNodes[i];
+            fFirstChild[i] = NONE;
+            fNextSibling[i] = NONE;
+            fSize[i] = 1;
+            // the children precede their parent in post-order and are thus linked already
+            int previous = NONE;
+            for (int c = 0; c < node.getChildCount(); c++) {
+                int child = fIndices.get(node.getChildAt(c));
+                fParent[child] = i;
+                fSize[i] += fSize[child];
+                if (previous == NONE) {
+                    fFirstChild[i] = child;
+                } else {
+                    fNextSibling[previous] = child;
+                }
+                previous = child;
+            }
+            if (previous == NONE) {
+                leaves++;
+            }
+            fLabels[i] = symbols.idOf(node.getLabel());
+            fValues[i] = symbols.idOf(node.getValue());
+        }
+        fRoot = root.isRoot() ? size - 1 : NONE;
+
+        fLeaves = new int[leaves];
+        for (int i = 0, l = 0; i < size; i++) {
+            if (fFirstChild[i] == NONE) {
+                fLeaves[l++] = i;
+            }
+        }
+
+        fPreOrder = new int[size];
+        int rank = 0;
+        for (int i = size - 1; i != NONE;) {
+            fPreOrder[i] = rank++;
+            if (fFirstChild[i] != NONE) {
+                i = fFirstChild[i];
+            } else {
+                while ((i != NONE) && (fNextSibling[i] == NONE)) {
+                    i = fParent[i];
+                }
+                if (i != NONE) {
+                    i = fNextSibling[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     * 
+     * @return the number of nodes in the tree
+     */
+    public int size() {
+        return fNodes.length;
+    }
+
+    /**
+     * Returns the node with the given post-order index.
+     * 
+     * @param index
+     *            of the node
+     * @return the node with the index
+     */
+    public Node getNode(int index) {
+        return fNodes[index];
+    }
+
+    /**
+     * Returns the post-order index of the given node.
+     * 
+     * @param node
+     *            to get the index for
+     * @return the index of the node, <code>-1</code> if the node is not part of the tree
+     */
+    public int indexOf(Node node) {
+        Integer result = fIndices.get(node);
+        return result == null ? NONE : result;
+    }
+
+    /**
+     * Returns the index of the parent of the given node.
+     * 
+     * @param index
+     *            of the node
+     * @return the index of the parent, <code>-1</code> for the indexed root
+     */
+    public int getParent(int index) {
+        return fParent[index];
+    }
+
+    /**
+     * Returns the index of the first child of the given node.
+     * 
+     * @param index
+     *            of the node
+     * @return the index of the first child, <code>-1</code> for a leaf
+     */
+    public int getFirstChild(int index) {
+        return fFirstChild[index];
+    }
+
+    /**
+     * Returns the index of the next sibling of the given node.
+     * 
+     * @param index
+     *            of the node
+     * @return the index of the next sibling, <code>-1</code> for the last child
+     */
+    public int getNextSibling(int index) {
+        return fNextSibling[index];
+    }
+
+    /**
+     * Returns the rank of the given node in the pre-order traversal of the tree.
+     * 
+     * @param index
+     *            of the node
+     * @return the pre-order rank of the node
+     */
+    public int getPreOrder(int index) {
+        return fPreOrder[index];
+    }
+
+    /**
+     * Returns the number of nodes in the subtree of the given node, including the node. The subtree occupies the
+     * indices from <code>index - getSize(index) + 1</code> to <code>index</code>.
+     * 
+     * @param index
+     *            of the node
+     * @return the size of the subtree of the node
+     */
+    public int getSize(int index) {
+        return fSize[index];
+    }
+
+    /**
+     * Returns whether the given node is the ancestor or the node itself. The check compares the pre-order and
+     * post-order numbers of both nodes and thus takes constant time.
+     * 
+     * @param ancestor
+     *            index of the candidate ancestor
+     * @param index
+     *            of the node
+     * @return <code>true</code> if the node is in the subtree of the ancestor, <code>false</code> otherwise
+     */
+    public boolean isDescendant(int ancestor, int index) {
+        return (fPreOrder[ancestor] <= fPreOrder[index]) && (index <= ancestor);
+    }
+
+    public boolean isLeaf(int index) {
+        return fFirstChild[index] == NONE;
+    }
+
+    /**
+     * Returns whether the given node is the root of its tree, i.e., the indexed root and without parent.
+     * 
+     * @param index
+     *            of the node
+     * @return <code>true</code> if the node is the root of its tree, <code>false</code> otherwise
+     */
+    public boolean isRoot(int index) {
+        return index == fRoot;
+    }
+
+    /**
+     * Returns the number of leaves in the tree.
+     * 
+     * @return the number of leaves
+     */
+    public int getLeafCount() {
+        return fLeaves.length;
+    }
+
+    /**
+     * Returns the index of the <code>k</code>th leaf in post-order.
+     * 
+     * @param k
+     *            the position of the leaf among the leaves
+     * @return the index of the leaf
+     */
+    public int getLeaf(int k) {
+        return fLeaves[k];
+    }
+
+    /**
+     * Returns the id of the label of the given node.
+     * 
+     * @param index
+     *            of the node
+     * @return the label id of the node
+     */
+    public int getLabel(int index) {
+        return fLabels[index];
+    }
+
+    /**
+     * Returns the id of the value of the given node.
+     * 
+     * @param index
+     *            of the node
+     * @return the value id of the node
+     */
+    public int getValue(int index) {
+        return fValues[index];
+    }
+
+}
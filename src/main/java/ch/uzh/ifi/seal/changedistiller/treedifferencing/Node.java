@@ -21,10 +21,12 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing;
  */
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.MutableTreeNode;
 
 import ch.uzh.ifi.seal.changedistiller.model.classifiers.EntityType;
 import ch.uzh.ifi.seal.changedistiller.model.entities.SourceCodeEntity;
@@ -46,11 +48,16 @@ public class Node extends DefaultMutableTreeNode {
     private EntityType fLabel;
     private String fValue;
 
-    private boolean fMatched;
-    private boolean fOrdered;
-
     private SourceCodeEntity fEntity;
-    private List<Node> fAssociatedNodes = new ArrayList<Node>();
+    private List<Node> fAssociatedNodes;
+
+    // statistics of the subtree, computed on first use and invalidated along the ancestors on every change
+    private volatile boolean fStatisticsValid;
+    private int fLeafCount;
+    private int fCommentCount;
+    private int fSubtreeSize;
+    private int fHeight;
+    private int fStructureHash;
 
     /**
      * Creates a new node.
@@ -66,69 +73,135 @@ public class Node extends DefaultMutableTreeNode {
         fValue = value;
     }
 
-    /**
-     * The node is not matched with another node.
-     */
-    public void disableMatched() {
-        fMatched = false;
+    public EntityType getLabel() {
+        return fLabel;
+    }
+
+    public void setLabel(EntityType label) {
+        fLabel = label;
+        invalidateStatistics();
+    }
+
+    public String getValue() {
+        return fValue;
+    }
+
+    public void setValue(String value) {
+        fValue = value;
+        invalidateStatistics();
     }
 
     /**
-     * The node is matched with another node.
+     * Returns the number of leaves in the subtree of this node, which is <code>1</code> for a leaf. The count is
+     * computed once and cached until the subtree changes.
+     * 
+     * @return the number of leaves in the subtree of this node
      */
-    public void enableMatched() {
-        fMatched = true;
+    @Override
+    public int getLeafCount() {
+        updateStatistics();
+        return fLeafCount;
     }
 
     /**
-     * Returns whether this node is matched with another node.
+     * Returns the number of comment nodes in the subtree of this node, including this node.
      * 
-     * @return <code>true</code> if this node is match with another node, <code>false</code> otherwise
+     * @return the number of comment nodes in the subtree of this node
      */
-    public boolean isMatched() {
-        return fMatched;
+    public int getCommentCount() {
+        updateStatistics();
+        return fCommentCount;
     }
 
     /**
-     * The node is out of order with its siblings.
+     * Returns the number of nodes in the subtree of this node, including this node.
+     * 
+     * @return the number of nodes in the subtree of this node
      */
-    public void enableOutOfOrder() {
-        fOrdered = false;
+    public int getSubtreeSize() {
+        updateStatistics();
+        return fSubtreeSize;
     }
 
     /**
-     * The node is in order with its siblings.
+     * Returns the height of the subtree of this node, i.e., the distance to its deepest leaf.
+     * 
+     * @return the height of the subtree of this node
      */
-    public void enableInOrder() {
-        fOrdered = true;
+    @Override
+    public int getDepth() {
+        updateStatistics();
+        return fHeight;
     }
-    
+
     /**
-     * Returns whether this node is in order with its siblings.
+     * Returns a hash over the labels, values, and order of the nodes in the subtree of this node. Subtrees that are
+     * equal in labels, values, and structure have the same hash.
      * 
-     * @return <code>true</code> if this node is in order with its siblings, <code>false</code> otherwise
+     * @return the structure hash of the subtree of this node
      */
-    public boolean isInOrder() {
-        return fOrdered;
+    public int getStructureHash() {
+        updateStatistics();
+        return fStructureHash;
     }
-    
-    public EntityType getLabel() {
-        return fLabel;
+
+    @Override
+    public void insert(MutableTreeNode newChild, int childIndex) {
+        super.insert(newChild, childIndex);
+        invalidateStatistics();
     }
 
-    public void setLabel(EntityType label) {
-        fLabel = label;
+    @Override
+    public void remove(int childIndex) {
+        super.remove(childIndex);
+        invalidateStatistics();
     }
 
-    public String getValue() {
-        return fValue;
+    @Override
+    public Object clone() {
+        // the clone has no children
+        Node clone = (Node) super.clone();
+        clone.fStatisticsValid = false;
+        return clone;
     }
 
-    public void setValue(String value) {
-        fValue = value;
+    private void invalidateStatistics() {
+        // a node with invalid statistics has ancestors with invalid statistics
+        for (Node node = this; (node != null) && node.fStatisticsValid; node = (Node) node.getParent()) {
+            node.fStatisticsValid = false;
+        }
+    }
+
+    private void updateStatistics() {
+        if (fStatisticsValid) {
+            return;
+        }
+        int leafCount = 0;
+        int commentCount = (fLabel != null) && fLabel.isComment() ? 1 : 0;
+        int subtreeSize = 1;
+        int height = 0;
+        int hash = (31 * (fLabel == null ? 0 : fLabel.name().hashCode())) + (fValue == null ? 0 : fValue.hashCode());
+        for (int i = 0; i < getChildCount(); i++) {
+            Node child = (Node) getChildAt(i);
+            child.updateStatistics();
+            leafCount += child.fLeafCount;
+            commentCount += child.fCommentCount;
+            subtreeSize += child.fSubtreeSize;
+            height = Math.max(height, child.fHeight + 1);
+            hash = (31 * hash) + child.fStructureHash;
+        }
+        fLeafCount = Math.max(leafCount, 1);
+        fCommentCount = commentCount;
+        fSubtreeSize = subtreeSize;
+        fHeight = height;
+        fStructureHash = hash;
+        fStatisticsValid = true;
     }
 
     public List<Node> getAssociatedNodes() {
+        if (fAssociatedNodes == null) {
+            return Collections.emptyList();
+        }
         return fAssociatedNodes;
     }
 
@@ -139,6 +212,9 @@ public class Node extends DefaultMutableTreeNode {
      *            to add as associated node
      */
     public void addAssociatedNode(Node node) {
+        if (fAssociatedNodes == null) {
+            fAssociatedNodes = new ArrayList<Node>(1);
+        }
         fAssociatedNodes.add(node);
         getEntity().addAssociatedEntity(node.getEntity());
     }
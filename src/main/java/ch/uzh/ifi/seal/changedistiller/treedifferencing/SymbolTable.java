@@ -0,0 +1,65 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns dense integer ids to equal symbols, e.g., the labels and values of {@link Node}s.
+ * <p>
+ * Trees indexed with the same symbol table have comparable ids, i.e., two nodes have the same value id if and only if
+ * their values are equal. A table is usually scoped to a single differencing run, but may be shared by the sequential
+ * runs of a batch, e.g., the files of a commit, such that recurring values are interned only once. The table is not
+ * thread-safe.
+ * 
+ * @see IndexedTree
+ */
+public class SymbolTable {
+
+    private final Map<Object, Integer> fIds = new HashMap<Object, Integer>();
+
+    /**
+     * Returns the id of the given symbol. A symbol that is not yet in the table gets the next free id.
+     * 
+     * @param symbol
+     *            to get the id for, may be <code>null</code>
+     * @return the id of the symbol
+     */
+    public int idOf(Object symbol) {
+        Integer result = fIds.get(symbol);
+        if (result == null) {
+            result = fIds.size();
+            fIds.put(symbol, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of symbols in the table.
+     * 
+     * @return the number of symbols
+     */
+    public int size() {
+        return fIds.size();
+    }
+
+}
@@ -20,12 +20,19 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing;
  * #L%
  */
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import ch.uzh.ifi.seal.changedistiller.model.classifiers.EntityType;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.MatchingFactory;
@@ -42,6 +49,10 @@ import ch.uzh.ifi.seal.changedistiller.treedifferencing.operation.UpdateOperatio
  * <p>
  * The implementation style is not clean, i.e., it uses single character method and variable names, because the
  * implementation should reflect the original algorithm from the paper as much as possible.
+ * <p>
+ * By default, the edit script is applied to the left tree while it is calculated, i.e., the left tree is transformed
+ * into the right one. With {@link #disableTreeModification()}, the edit script is calculated against a virtual
+ * overlay of the left tree instead, and both trees are left untouched, such that they can be differenced again.
  * 
  * @author Beat Fluri
  * @see TreeEditOperation
@@ -49,20 +60,49 @@ import ch.uzh.ifi.seal.changedistiller.treedifferencing.operation.UpdateOperatio
  */
 public class TreeDifferencer {
 
-    private static final int UP = 1;
-    private static final int LEFT = 2;
-    private static final int DIAG = 3;
-
+    // M and M' are held as bidirectional identity maps, such that (a, b) in M is answered in constant time
     private Set<NodePair> fMatch;
-    private HashMap<Node, Node> fLeftToRightMatch;
-    private HashMap<Node, Node> fRightToLeftMatch;
+    private Map<Node, Node> fLeftToRightMatch;
+    private Map<Node, Node> fRightToLeftMatch;
 
-    private HashSet<NodePair> fMatchPrime;
-    private HashMap<Node, Node> fLeftToRightMatchPrime;
-    private HashMap<Node, Node> fRightToLeftMatchPrime;
+    private Map<Node, Node> fLeftToRightMatchPrime;
+    private Map<Node, Node> fRightToLeftMatchPrime;
 
     private List<TreeEditOperation> fEditScript;
 
+    private boolean fModifyTrees = true;
+
+    private final TokenBasedCalculator fCommentSimilarityCalculator = new TokenBasedCalculator();
+
+    // interns the node values of the matching across runs, a table per run if not set
+    private SymbolTable fSymbols;
+
+    // opt-in modes of the matching, see TreeMatcher
+    private boolean fIdenticalSubtreeMatchingEnabled;
+    private ForkJoinPool fParallelPool;
+    private boolean fLeafCandidateLimitEnabled;
+    private int fLeafCandidateLimit;
+    private boolean fLocalLeafMatchingEnabled;
+    private boolean fSequenceAnchoredMatchingEnabled;
+
+    private boolean fWorkBudgetEnabled;
+    private long fEvaluationBudget;
+    private long fTimeBudget;
+    private boolean fDegraded;
+
+    // overlay of T1 while the edit script is calculated: the parents of the moved and inserted nodes and an
+    // order-statistics index of the children of each parent, holding which children are marked "in order"
+    private Map<Node, Node> fParents;
+    private Map<Node, ChildSequence> fChildren;
+
+    // scratch buffers of the longest common subsequence, reused by all alignments of this differencer
+    private int[] fLCSPartner = new int[0];
+    private int[] fLCSLength = new int[0];
+    private int[] fLCSTails = new int[0];
+    private int[] fLCSLevels = new int[0];
+    private int[] fLCSLevelStart = new int[2];
+    private int[] fLCSColumn = new int[0];
+
     /**
      * Calculates the edit script of {@link TreeEditOperation} between the left and the right {@link Node} trees.
      * 
@@ -75,9 +115,45 @@ public class TreeDifferencer {
         fMatch = new HashSet<NodePair>();
 
         TreeMatcher dnm = MatchingFactory.getMatcher(fMatch);
+        dnm.setSymbolTable(fSymbols);
+        if (fIdenticalSubtreeMatchingEnabled) {
+            dnm.enableIdenticalSubtreeMatching();
+        }
+        if (fParallelPool != null) {
+            dnm.enableParallelLeafMatching(fParallelPool);
+        }
+        if (fLeafCandidateLimitEnabled) {
+            dnm.enableLeafCandidateLimit(fLeafCandidateLimit);
+        }
+        if (fLocalLeafMatchingEnabled) {
+            dnm.enableLocalLeafMatching();
+        }
+        if (fSequenceAnchoredMatchingEnabled) {
+            dnm.enableSequenceAnchoredMatching();
+        }
+        if (fWorkBudgetEnabled) {
+            dnm.enableWorkBudget(fEvaluationBudget, fTimeBudget);
+        }
         dnm.match(left, right);
-        fLeftToRightMatch = new HashMap<Node, Node>();
-        fRightToLeftMatch = new HashMap<Node, Node>();
+        fDegraded = dnm.isDegraded();
+        calculateEditScript(left, right, fMatch);
+    }
+
+    /**
+     * Calculates the edit script between the left and the right tree from the given matching, which is not computed
+     * again. This separates the edit script generation from the matching, e.g., to measure it on its own.
+     * 
+     * @param left
+     *            tree to calculate the edit script for
+     * @param right
+     *            tree to calculate the edit script for
+     * @param matching
+     *            of the nodes of the left and the right tree
+     */
+    void calculateEditScript(Node left, Node right, Set<NodePair> matching) {
+        fMatch = matching;
+        fLeftToRightMatch = new IdentityHashMap<Node, Node>();
+        fRightToLeftMatch = new IdentityHashMap<Node, Node>();
         for (NodePair p : fMatch) {
             fLeftToRightMatch.put(p.getLeft(), p.getRight());
             fRightToLeftMatch.put(p.getRight(), p.getLeft());
@@ -85,20 +161,169 @@ public class TreeDifferencer {
         editScript(left, right);
     }
 
+    /**
+     * Shares the given symbol table with the matching of all runs of {@link #calculateEditScript(Node, Node)}, e.g.,
+     * across the files of a batch. By default, each matching interns the node values in a table of its own.
+     * 
+     * @param symbols
+     *            to intern the node values with, <code>null</code> for a table per run
+     */
+    public void setSymbolTable(SymbolTable symbols) {
+        fSymbols = symbols;
+    }
+
     public List<TreeEditOperation> getEditScript() {
         return fEditScript;
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
+    /**
+     * Enables the application of the edit script to the left tree, which is the default.
+     */
+    public void enableTreeModification() {
+        fModifyTrees = true;
+    }
+
+    /**
+     * Disables the application of the edit script to the left tree. Neither tree is modified by
+     * {@link #calculateEditScript(Node, Node)}, and the nodes keep their original parents. The parents before and
+     * after an operation are available from the operation itself. Inserted nodes are not attached to a tree.
+     */
+    public void disableTreeModification() {
+        fModifyTrees = false;
+    }
+
+    /**
+     * Enables the matching of identical subtrees before the leaves are matched.
+     * 
+     * @see TreeMatcher#enableIdenticalSubtreeMatching()
+     */
+    public void enableIdenticalSubtreeMatching() {
+        fIdenticalSubtreeMatchingEnabled = true;
+    }
+
+    /**
+     * Disables the matching of identical subtrees, which is the default.
+     */
+    public void disableIdenticalSubtreeMatching() {
+        fIdenticalSubtreeMatchingEnabled = false;
+    }
+
+    /**
+     * Enables the parallel scoring of leaf pairs on the given pool. The pool is owned by the caller.
+     * 
+     * @param pool
+     *            the pool on which the leaf pairs are scored
+     * @see TreeMatcher#enableParallelLeafMatching(ForkJoinPool)
+     */
+    public void enableParallelLeafMatching(ForkJoinPool pool) {
+        fParallelPool = pool;
+    }
+
+    /**
+     * Disables the parallel scoring of leaf pairs, which is the default.
+     */
+    public void disableParallelLeafMatching() {
+        fParallelPool = null;
+    }
+
+    /**
+     * Limits the number of candidates that are kept for each leaf of the left tree.
+     * 
+     * @param limit
+     *            the number of candidates kept for each leaf
+     * @see TreeMatcher#enableLeafCandidateLimit(int)
+     */
+    public void enableLeafCandidateLimit(int limit) {
+        fLeafCandidateLimit = limit;
+        fLeafCandidateLimitEnabled = true;
+    }
+
+    /**
+     * Disables the limit of candidates for each leaf, which is the default.
+     */
+    public void disableLeafCandidateLimit() {
+        fLeafCandidateLimitEnabled = false;
+    }
+
+    /**
+     * Enables the locality-first matching of leaves.
+     * 
+     * @see TreeMatcher#enableLocalLeafMatching()
+     */
+    public void enableLocalLeafMatching() {
+        fLocalLeafMatchingEnabled = true;
+    }
+
+    /**
+     * Disables the locality-first matching of leaves, which is the default.
+     */
+    public void disableLocalLeafMatching() {
+        fLocalLeafMatchingEnabled = false;
+    }
+
+    /**
+     * Enables the sequence anchored matching, i.e., the nodes in the unchanged runs of the linearized trees are
+     * matched before the leaves.
+     * 
+     * @see TreeMatcher#enableSequenceAnchoredMatching()
+     */
+    public void enableSequenceAnchoredMatching() {
+        fSequenceAnchoredMatchingEnabled = true;
+    }
+
+    /**
+     * Disables the sequence anchored matching, which is the default.
+     */
+    public void disableSequenceAnchoredMatching() {
+        fSequenceAnchoredMatchingEnabled = false;
+    }
+
+    /**
+     * Bounds the work of the matching in {@link #calculateEditScript(Node, Node)}. Only the matching is bounded: the
+     * edit script is always derived completely from the (possibly degraded) matching, i.e., aligning the children and
+     * the insert, move, update, and delete phases are not interrupted by the budget.
+     * 
+     * @param evaluations
+     *            the number of similarity evaluations, no limit if not positive
+     * @param millis
+     *            the time in milliseconds, no limit if not positive
+     * @see TreeMatcher#enableWorkBudget(long, long)
+     */
+    public void enableWorkBudget(long evaluations, long millis) {
+        fEvaluationBudget = evaluations;
+        fTimeBudget = millis;
+        fWorkBudgetEnabled = true;
+    }
+
+    /**
+     * Disables the work budget of the matching, which is the default.
+     */
+    public void disableWorkBudget() {
+        fWorkBudgetEnabled = false;
+    }
+
+    /**
+     * Returns whether the matching of the last edit script ran out of its work budget, i.e., whether the edit script
+     * is based on a degraded matching. The edit script itself is complete for that matching, but may contain more
+     * operations than the one of an unbounded run.
+     * 
+     * @return <code>true</code> if the matching was degraded, <code>false</code> otherwise
+     */
+    public boolean isDegraded() {
+        return fDegraded;
+    }
+
+    @SuppressWarnings("rawtypes")
     private void editScript(Node left, Node right) {
         // 1.
         // E <- {}
         fEditScript = new LinkedList<TreeEditOperation>();
 
         // M' <- M
-        fMatchPrime = new HashSet(fMatch);
-        fLeftToRightMatchPrime = fLeftToRightMatch;
-        fRightToLeftMatchPrime = fRightToLeftMatch;
+        fLeftToRightMatchPrime = new IdentityHashMap<Node, Node>(fLeftToRightMatch);
+        fRightToLeftMatchPrime = new IdentityHashMap<Node, Node>(fRightToLeftMatch);
+        fParents = new IdentityHashMap<Node, Node>();
+        fChildren = new IdentityHashMap<Node, ChildSequence>();
 
         // 2.
         // Visit the nodes in T2 in breath-first order
@@ -124,14 +349,12 @@ public class TreeDifferencer {
 
                 // ii. Append INS((w, a, v(x)), z, k) to E, for a new identifier w.
                 w = (Node) x.clone();
-                w.enableMatched();
-                x.enableMatched();
                 TreeEditOperation insert = new InsertOperation(w, z, k);
                 fEditScript.add(insert);
 
                 // iii. Add (w, x) to M' and apply INS((w, a, v(x)), z, k) to T1
                 addMatchToPrimes(x, w);
-                insert.apply();
+                applyInsert(insert, w, z, k);
 
                 // (c) else if x is not a root (x has a partner in M')
             } else if (!x.isRoot()) {
@@ -139,13 +362,12 @@ public class TreeDifferencer {
                 // Let w be the partner of x in M'
                 /* T1 */w = fRightToLeftMatchPrime.get(x);
                 // Let v = p(w) in T1
-                Node /* T1 */v = (Node) w.getParent();
+                Node /* T1 */v = p(w);
 
                 // ii. If v(w) != v(x)
                 boolean equals = true;
                 if (l(w).isComment()) {
-                    TokenBasedCalculator tbc = new TokenBasedCalculator();
-                    double sim = tbc.calculateSimilarity(v(w), v(x));
+                    double sim = fCommentSimilarityCalculator.calculateSimilarity(v(w), v(x));
                     equals = sim == 1.0;
                 } else {
                     equals = v(w).equals(v(x));
@@ -158,29 +380,28 @@ public class TreeDifferencer {
                     update.apply();
                 }
                 // iii. If (y, v) not in M'
-                if (!matchContains(v, y, fMatchPrime)) {
+                if (!matchContains(v, y, fLeftToRightMatchPrime)) {
                     // A. Let z be the partner of y in M'
                     // Node z /*T1*/= (Node) fRightToLeftMatchPrime.get(y); already executed
                     // B. k <- FindPos(x)
                     int k = findPosition(x);
                     // C. Append MOV(w, z, k) to E
-                    TreeEditOperation move = new MoveOperation(w, x, z, k);
+                    TreeEditOperation move = new MoveOperation(w, x, v, z, k);
                     fEditScript.add(move);
                     // D. Apply MOV(w, z, k) to T1
-                    move.apply();
+                    applyMove(move, w, z, k);
                 }
             }
             // (d) AlignChildren(w, x)
-            if (!w.isLeaf()) {
+            if (!isLeaf(w)) {
                 alignChildren(w, x);
             }
         }
 
         // 3. Do a post-order traversal of T1 (this is the delete phase)
         LinkedList<TreeEditOperation> dels = new LinkedList<TreeEditOperation>();
-        for (Enumeration postOrder = left.postorderEnumeration(); postOrder.hasMoreElements();) {
+        for (Node w : postOrder(left)) {
             // (a) Let w be the current node in the post-order traversal of T1
-            Node w = (Node) postOrder.nextElement();
             // (b) If w has no partner in M'
             if (fLeftToRightMatchPrime.get(w) == null) {
                 // Append DEL(w) to E
@@ -197,7 +418,7 @@ public class TreeDifferencer {
     }
 
     private void alignChildren(Node w, Node x) {
-        if (w.isLeaf() || x.isLeaf()) {
+        if (isLeaf(w) || x.isLeaf()) {
             return;
         }
 
@@ -213,47 +434,135 @@ public class TreeDifferencer {
 
         // 3. Define the function equal(a, b) to be true if and only if (a, b) in M'
         // 4. Let S <- LCS(S1, S2, equal)
-        HashSet<NodePair> s = longestCommonSubsequence(sOne, sTwo);
+        List<NodePair> s = longestCommonSubsequence(sOne, sTwo);
 
         // 5. For each (a, b) in S, mark nodes a and b "in order"
+        ChildSequence wChildren = children(w);
+        ChildSequence xChildren = children(x);
         for (NodePair p : s) {
-            p.getLeft().enableInOrder();
-            p.getRight().enableInOrder();
+            wChildren.setInOrder(p.getLeft(), true);
+            xChildren.setInOrder(p.getRight(), true);
         }
 
         // 6. For each a in S1, b in S2 such that (a, b) in M but (a, b) not in S
         for (Node a : sOne) {
-            if (!a.isInOrder()) { // a not in S
-                for (Node b : sTwo) {
-                    if (!b.isInOrder() && matchContains(a, b, fMatch)) { // b not in S and (a, b) in M
-                        // (a) k <- FindPos(b)
-                        int k = findPosition(b);
-                        // (b)
-                        // Append MOV(a, w, k) to E
-                        TreeEditOperation move = new MoveOperation(a, b, w, k);
-                        fEditScript.add(move);
-                        // Apply MOV(a, w, k) to T1
-                        move.apply();
-                        // (c) Mark a and b "in order"
-                        a.enableInOrder();
-                        b.enableInOrder();
-                    }
+            if (!wChildren.isInOrder(a)) { // a not in S
+                // M' agrees with M on the nodes of T1, so the partner of a in M, if any, is in S2
+                Node b = fLeftToRightMatch.get(a);
+                if ((b != null) && !xChildren.isInOrder(b)) { // b not in S and (a, b) in M
+                    // (a) k <- FindPos(b)
+                    int k = findPosition(b);
+                    // (b)
+                    // Append MOV(a, w, k) to E
+                    TreeEditOperation move = new MoveOperation(a, b, w, w, k);
+                    fEditScript.add(move);
+                    // Apply MOV(a, w, k) to T1
+                    applyMove(move, a, w, k);
+                    // (c) Mark a and b "in order"
+                    wChildren.setInOrder(a, true);
+                    xChildren.setInOrder(b, true);
                 }
             }
         }
     }
 
     /**
-     * Sequence of children of node whose partners are children of x
+     * Applies the insert of node at position k of parent to the overlay of T1 and, if enabled, to T1
+     */
+    private void applyInsert(TreeEditOperation insert, Node node, Node parent, int k) {
+        ChildSequence siblings = children(parent);
+        if (fModifyTrees) {
+            insert.apply();
+        }
+        fParents.put(node, parent);
+        siblings.add(node, k, false);
+    }
+
+    /**
+     * Applies the move of node to position k of parent to the overlay of T1 and, if enabled, to T1. The "in order"
+     * mark of node is carried along.
+     */
+    private void applyMove(TreeEditOperation move, Node node, Node parent, int k) {
+        ChildSequence oldSiblings = children(p(node));
+        ChildSequence newSiblings = children(parent);
+        boolean inOrder = oldSiblings.isInOrder(node);
+        // MOV appends the node if the position lies beyond the last child
+        boolean append = newSiblings.size() <= k;
+        if (fModifyTrees) {
+            move.apply();
+        }
+        oldSiblings.remove(node);
+        fParents.put(node, parent);
+        newSiblings.add(node, append ? newSiblings.size() : k, inOrder);
+    }
+
+    /**
+     * Parent of node in the overlay of T1, or in T2
+     */
+    private Node p(Node node) {
+        Node result = fParents.get(node);
+        if (result == null) {
+            result = (Node) node.getParent();
+        }
+        return result;
+    }
+
+    private boolean isLeaf(Node node) {
+        ChildSequence children = fChildren.get(node);
+        if (children == null) {
+            return node.isLeaf();
+        }
+        return children.size() == 0;
+    }
+
+    /**
+     * Post-order traversal of the overlay of T1
      */
     @SuppressWarnings("rawtypes")
-    private List<Node> createChildrenSequence(Node node, Node x, HashMap<Node, Node> match) {
-        LinkedList<Node> result = new LinkedList<Node>();
+    private List<Node> postOrder(Node root) {
+        // reversed pre-order traversal that visits the children from right to left
+        List<Node> result = new ArrayList<Node>();
+        Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            result.add(node);
+            ChildSequence children = fChildren.get(node);
+            if (children != null) {
+                for (Node child : children.getChildren()) {
+                    stack.push(child);
+                }
+            } else {
+                for (Enumeration e = node.children(); e.hasMoreElements();) {
+                    stack.push((Node) e.nextElement());
+                }
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
 
-        for (Enumeration e = node.children(); e.hasMoreElements();) {
-            Node n = (Node) e.nextElement();
+    /**
+     * Children of node in the overlay of T1, or in T2, created on first use with all children marked "out of order"
+     */
+    private ChildSequence children(Node node) {
+        ChildSequence result = fChildren.get(node);
+        if (result == null) {
+            result = new ChildSequence(node);
+            fChildren.put(node, result);
+        }
+        return result;
+    }
+
+    /**
+     * Sequence of children of node whose partners are children of x
+     */
+    private List<Node> createChildrenSequence(Node node, Node x, Map<Node, Node> match) {
+        List<Node> result = new ArrayList<Node>();
+
+        for (Node n : children(node).getChildren()) {
             Node v = match.get(n);
-            if ((v != null) && (v.getParent() == x)) {
+            if ((v != null) && (p(v) == x)) {
                 result.add(n);
             }
         }
@@ -261,20 +570,12 @@ public class TreeDifferencer {
         return result;
     }
 
-    @SuppressWarnings("rawtypes")
     private void markChildrenOutOfOrder(Node node) {
-        for (Enumeration e = node.children(); e.hasMoreElements();) {
-            ((Node) e.nextElement()).enableOutOfOrder();
-        }
+        children(node).setAllOutOfOrder();
     }
 
-    private boolean matchContains(Node v, Node y, Set<NodePair> match) {
-        for (NodePair p : match) {
-            if (((p.getLeft() == v) && (p.getRight() == y)) || ((p.getLeft() == y) && (p.getRight() == v))) {
-                return true;
-            }
-        }
-        return false;
+    private boolean matchContains(Node v, Node y, Map<Node, Node> leftToRightMatch) {
+        return (leftToRightMatch.get(v) == y) || (leftToRightMatch.get(y) == v);
     }
 
     private String v(Node node) {
@@ -286,7 +587,6 @@ public class TreeDifferencer {
     }
 
     private void addMatchToPrimes(Node x /* T1 */, Node w /* T2 */) {
-        fMatchPrime.add(new NodePair(w, x));
         fLeftToRightMatchPrime.put(w, x);
         fRightToLeftMatchPrime.put(x, w);
     }
@@ -294,7 +594,10 @@ public class TreeDifferencer {
     private int findPosition(Node node) {
         // 1. Let y = p(x) in T2
         // [and let w be the partner of x (x in T1)] makes no sense
-        // Node y = (Node) node.getParent();
+        Node y = (Node) node.getParent();
+        if (y == null) {
+            return 0;
+        }
         /*
          * //2. if (node == y.getFirstChild() && node.isInOrder()) { return 0; }
          */
@@ -303,15 +606,14 @@ public class TreeDifferencer {
         // 3. Find v in T2 where v is the rightmost sibling of x that is to the
         // left of x and is marked "in order"
         // combining both steps
-        Node v = (Node) node.getPreviousSibling();
-        while ((v != null) && !v.isInOrder()) {
-            v = (Node) v.getPreviousSibling();
-        }
+        ChildSequence siblings = children(y);
+        int i = siblings.countInOrderBefore(node);
 
         // x is the leftmost child of y that is marked "in order"
-        if (v == null) {
+        if (i == 0) {
             return 0;
         }
+        Node v = siblings.getInOrder(i - 1);
 
         // 4. Let u be the partner of v in T1 (*)
         Node u = fRightToLeftMatchPrime.get(v);
@@ -322,63 +624,121 @@ public class TreeDifferencer {
         // 5. Suppose u is the ith child of its parent
         // (counting from left to right) that is marked "in order"
         // return i+1
-        Node p = (Node) u.getParent();
-        int count = 0;
-        for (int i = 0; i < p.getIndex(u); i++) {
-            Node h = (Node) p.getChildAt(i);
-            if (h.isInOrder()) {
-                count++;
-            }
-        }
-
-        return count + 1;
+        Node p = p(u);
+        return children(p).countInOrderBefore(u) + 1;
     }
 
-    private HashSet<NodePair> longestCommonSubsequence(List<Node> left, List<Node> right) {
+    /**
+     * Longest common subsequence of S1 and S2 under equal(a, b) iff (a, b) in M'.
+     * <p>
+     * Because M' is one-to-one, the LCS is the longest increasing subsequence of the positions that the partners of
+     * S1 have in S2. It is computed in O(n log n) time, linear space, and without recursion. Among the longest
+     * subsequences it picks the one the classic dynamic programming backtracking (preferring to drop elements of S1
+     * on ties) would have returned.
+     */
+    private List<NodePair> longestCommonSubsequence(List<Node> left, List<Node> right) {
         int m = left.size();
         int n = right.size();
+        ensureLCSCapacity(m, n);
+        int[] partner = fLCSPartner;
+        int[] length = fLCSLength;
+        int[] tails = fLCSTails;
+        int[] column = fLCSColumn;
+
+        // position in S2 of the partner of each element of S1, -1 if it has none
+        Map<Node, Integer> leftPositions = new IdentityHashMap<Node, Integer>();
+        for (int i = 0; i < m; i++) {
+            leftPositions.put(left.get(i), i);
+            partner[i] = -1;
+        }
+        for (int j = 0; j < n; j++) {
+            column[j] = -1;
+            Integer i = leftPositions.get(fRightToLeftMatchPrime.get(right.get(j)));
+            if (i != null) {
+                partner[i] = j;
+                column[j] = i;
+            }
+        }
 
-        int[][] c = new int[m + 1][n + 1];
-        int[][] b = new int[m + 1][n + 1];
+        // length[i] is the length of the longest increasing subsequence ending in i
+        int lcs = 0;
+        for (int i = 0; i < m; i++) {
+            length[i] = 0;
+            if (partner[i] >= 0) {
+                int lo = 0;
+                int hi = lcs;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (tails[mid] < partner[i]) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                tails[lo] = partner[i];
+                if (lo == lcs) {
+                    lcs++;
+                }
+                length[i] = lo + 1;
+            }
+        }
 
-        for (int i = 0; i <= m; i++) {
-            c[i][0] = 0;
-            b[i][0] = 0;
+        // group the elements by length; within a group, positions in S1 increase while partners decrease
+        int[] levelStart = fLCSLevelStart;
+        int[] levels = fLCSLevels;
+        Arrays.fill(levelStart, 0, lcs + 2, 0);
+        for (int i = 0; i < m; i++) {
+            levelStart[length[i] + 1]++;
         }
-        for (int i = 0; i <= n; i++) {
-            c[0][i] = 0;
-            b[0][i] = 0;
+        for (int l = 1; l <= lcs + 1; l++) {
+            levelStart[l] += levelStart[l - 1];
         }
-
-        for (int i = 1; i <= m; i++) {
-            for (int j = 1; j <= n; j++) {
-                if (matchContains(left.get(i - 1), right.get(j - 1), fMatchPrime)) {
-                    c[i][j] = c[i - 1][j - 1] + 1;
-                    b[i][j] = DIAG;
-                } else if (c[i - 1][j] >= c[i][j - 1]) {
-                    c[i][j] = c[i - 1][j];
-                    b[i][j] = UP;
-                } else {
-                    c[i][j] = c[i][j - 1];
-                    b[i][j] = LEFT;
+        for (int i = 0; i < m; i++) {
+            levels[levelStart[length[i]]++] = i;
+        }
+        for (int l = lcs + 1; l > 0; l--) {
+            levelStart[l] = levelStart[l - 1];
+        }
+        levelStart[0] = 0;
+
+        // backtrack from the end of both sequences
+        List<NodePair> result = new ArrayList<NodePair>(lcs);
+        int previous = m;
+        int j = n - 1;
+        for (int l = lcs; l > 0; l--) {
+            int i = column[j];
+            if ((i < 0) || (i >= previous) || (length[i] != l)) {
+                // leftmost element of the group whose partner lies before the previously taken one
+                int lo = levelStart[l];
+                int hi = levelStart[l + 1];
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (partner[levels[mid]] > j) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
                 }
+                i = levels[lo];
             }
+            result.add(new NodePair(left.get(i), right.get(partner[i])));
+            previous = i;
+            j = partner[i] - 1;
         }
-        HashSet<NodePair> result = new HashSet<NodePair>();
-        extractLCS(b, left, right, m, n, result);
         return result;
     }
 
-    private void extractLCS(int[][] b, List<Node> l, List<Node> r, int i, int j, HashSet<NodePair> lcs) {
-        if ((i != 0) && (j != 0)) {
-            if (b[i][j] == DIAG) {
-                lcs.add(new NodePair(l.get(i - 1), r.get(j - 1)));
-                extractLCS(b, l, r, i - 1, j - 1, lcs);
-            } else if (b[i][j] == UP) {
-                extractLCS(b, l, r, i - 1, j, lcs);
-            } else {
-                extractLCS(b, l, r, i, j - 1, lcs);
-            }
+    private void ensureLCSCapacity(int m, int n) {
+        if (fLCSPartner.length < m) {
+            int capacity = Math.max(m, 2 * fLCSPartner.length);
+            fLCSPartner = new int[capacity];
+            fLCSLength = new int[capacity];
+            fLCSTails = new int[capacity];
+            fLCSLevels = new int[capacity];
+            fLCSLevelStart = new int[capacity + 2];
+        }
+        if (fLCSColumn.length < n) {
+            fLCSColumn = new int[Math.max(n, 2 * fLCSColumn.length)];
         }
     }
 }
@@ -21,6 +21,7 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing;
  */
 
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NodeSimilarityCalculator;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.StringSimilarityCalculator;
@@ -93,6 +94,15 @@ public interface TreeMatcher {
      */
     void setMatchingSet(Set<NodePair> matchingSet);
 
+    /**
+     * Sets the symbol table that interns the labels and values of the matched trees. Without a symbol table, each
+     * match(Node, Node) uses its own.
+     * 
+     * @param symbols
+     *            to intern the labels and values with, <code>null</code> for a table per matching
+     */
+    void setSymbolTable(SymbolTable symbols);
+
     /**
      * Enables dynamic threshold for the given depth of {@link Node} trees.
      * 
@@ -107,4 +117,95 @@ public interface TreeMatcher {
      * Disable dynamic threshold.
      */
     void disableDynamicThreshold();
+
+    /**
+     * Enables the matching of identical subtrees. Before the leaves are matched, inner nodes whose subtrees are
+     * identical and occur exactly once in each tree are matched together with all their descendants, such that only
+     * the changed regions of the trees are left to the similarity based matching.
+     */
+    void enableIdenticalSubtreeMatching();
+
+    /**
+     * Disable the matching of identical subtrees.
+     */
+    void disableIdenticalSubtreeMatching();
+
+    /**
+     * Enables the parallel scoring of leaf pairs on the given pool. The similarity calculators must be thread-safe.
+     * The matching is the same as with sequential scoring.
+     * 
+     * @param pool
+     *            the pool on which the leaf pairs are scored
+     */
+    void enableParallelLeafMatching(ForkJoinPool pool);
+
+    /**
+     * Disable the parallel scoring of leaf pairs.
+     */
+    void disableParallelLeafMatching();
+
+    /**
+     * Limits the number of candidates that are kept for each leaf of the left tree to the given number of most
+     * similar leaves of the right tree. The limit bounds the memory on trees with many similar leaves, but may change
+     * the matching.
+     * 
+     * @param limit
+     *            the number of candidates kept for each leaf
+     */
+    void enableLeafCandidateLimit(int limit);
+
+    /**
+     * Disable the limit of candidates for each leaf.
+     */
+    void disableLeafCandidateLimit();
+
+    /**
+     * Enables the locality-first matching of leaves. Inner nodes with a label and value that occur exactly once in
+     * each tree serve as anchors, and the leaves are first matched only with the leaves below the corresponding
+     * anchor. The leaves left unmatched are then matched across the whole trees.
+     */
+    void enableLocalLeafMatching();
+
+    /**
+     * Disable the locality-first matching of leaves.
+     */
+    void disableLocalLeafMatching();
+
+    /**
+     * Enables the sequence anchored matching. Before the leaves are matched, the pre-order sequences of labels and
+     * values of both trees are diffed, and the nodes in the unchanged runs are matched: leaves with the aligned leaves
+     * and inner nodes with the aligned identical subtrees.
+     */
+    void enableSequenceAnchoredMatching();
+
+    /**
+     * Disable the sequence anchored matching.
+     */
+    void disableSequenceAnchoredMatching();
+
+    /**
+     * Bounds the work of {@link #match(Node, Node)}. Once the given number of similarity evaluations or the given time
+     * is spent, the matcher stops the similarity based matching and falls back to cheaper strategies, i.e., matching
+     * identical subtrees, the unchanged runs of the linearized trees, and identical nodes. The matching is then
+     * flagged as degraded.
+     * 
+     * @param evaluations
+     *            the number of similarity evaluations, no limit if not positive
+     * @param millis
+     *            the time in milliseconds, no limit if not positive
+     * @see #isDegraded()
+     */
+    void enableWorkBudget(long evaluations, long millis);
+
+    /**
+     * Disable the work budget.
+     */
+    void disableWorkBudget();
+
+    /**
+     * Returns whether the last matching ran out of its work budget and fell back to cheaper strategies.
+     * 
+     * @return <code>true</code> if the last matching is degraded, <code>false</code> otherwise
+     */
+    boolean isDegraded();
 }
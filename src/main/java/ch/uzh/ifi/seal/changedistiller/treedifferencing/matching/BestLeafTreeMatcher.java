@@ -20,17 +20,29 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching;
  * #L%
  */
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.IndexedTree;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.LeafPair;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.Node;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.NodePair;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.SymbolTable;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.TreeMatcher;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.BatchStringSimilarityCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.IndexedNodeSimilarityCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NGramsCalculator;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NodeSimilarityCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.SimilarityHits;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.StringSimilarityCalculator;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.TokenBasedCalculator;
 
@@ -60,8 +72,39 @@ public class BestLeafTreeMatcher implements TreeMatcher {
     private int fDynamicDepth;
     private double fDynamicThreshold;
 
+    private boolean fIdenticalSubtreesEnabled;
+
+    private ForkJoinPool fParallelPool;
+
+    private int fLeafCandidateLimit;
+
+    private boolean fLocalLeafMatchingEnabled;
+
+    private boolean fSequenceAnchoringEnabled;
+
+    private boolean fWorkBudgetEnabled;
+    private long fEvaluationBudget;
+    private long fTimeBudget;
+
+    private SymbolTable fSymbols;
+
     private Set<NodePair> fMatch;
 
+    // state of the current run, addressed by the post-order indices of the nodes
+    private IndexedTree fLeft;
+    private IndexedTree fRight;
+    private BitSet fLeftMatched;
+    private BitSet fRightMatched;
+    // ngrams profiles of the leaf values by value id, if the leaf calculator supports them
+    private NGramsCalculator fLeafProfileCalculator;
+    private Map<Integer, long[]> fLeafProfiles;
+    // string similarities of inner node values by value ids
+    private Map<Long, Double> fNodeStringSimilarities;
+    // similarity evaluations and deadline of the work budget, updated by the scoring threads
+    private final AtomicLong fEvaluations = new AtomicLong();
+    private long fDeadline;
+    private volatile boolean fDegraded;
+
     @Override
     public void init(
             StringSimilarityCalculator leafStringSimCalc,
@@ -101,109 +144,621 @@ public class BestLeafTreeMatcher implements TreeMatcher {
         fDynamicEnabled = false;
     }
 
+    @Override
+    public void enableIdenticalSubtreeMatching() {
+        fIdenticalSubtreesEnabled = true;
+    }
+
+    @Override
+    public void disableIdenticalSubtreeMatching() {
+        fIdenticalSubtreesEnabled = false;
+    }
+
+    @Override
+    public void enableParallelLeafMatching(ForkJoinPool pool) {
+        fParallelPool = pool;
+    }
+
+    @Override
+    public void disableParallelLeafMatching() {
+        fParallelPool = null;
+    }
+
+    @Override
+    public void enableLeafCandidateLimit(int limit) {
+        fLeafCandidateLimit = limit;
+    }
+
+    @Override
+    public void disableLeafCandidateLimit() {
+        fLeafCandidateLimit = 0;
+    }
+
+    @Override
+    public void enableLocalLeafMatching() {
+        fLocalLeafMatchingEnabled = true;
+    }
+
+    @Override
+    public void disableLocalLeafMatching() {
+        fLocalLeafMatchingEnabled = false;
+    }
+
+    @Override
+    public void enableSequenceAnchoredMatching() {
+        fSequenceAnchoringEnabled = true;
+    }
+
+    @Override
+    public void disableSequenceAnchoredMatching() {
+        fSequenceAnchoringEnabled = false;
+    }
+
+    @Override
+    public void enableWorkBudget(long evaluations, long millis) {
+        fEvaluationBudget = evaluations > 0 ? evaluations : Long.MAX_VALUE;
+        fTimeBudget = millis > 0 ? millis : Long.MAX_VALUE;
+        fWorkBudgetEnabled = true;
+    }
+
+    @Override
+    public void disableWorkBudget() {
+        fWorkBudgetEnabled = false;
+    }
+
+    @Override
+    public boolean isDegraded() {
+        return fDegraded;
+    }
+
     @Override
     public void setMatchingSet(Set<NodePair> matchingSet) {
         fMatch = matchingSet;
     }
 
+    @Override
+    public void setSymbolTable(SymbolTable symbols) {
+        fSymbols = symbols;
+    }
+
     @Override
     public void match(Node left, Node right) {
-        List<LeafPair> matchedLeafs = matchLeaves(left, right);
+        SymbolTable symbols = fSymbols != null ? fSymbols : new SymbolTable();
+        fLeft = new IndexedTree(left, symbols);
+        fRight = new IndexedTree(right, symbols);
+        fLeftMatched = new BitSet(fLeft.size());
+        fRightMatched = new BitSet(fRight.size());
+        fLeafProfileCalculator = null;
+        fLeafProfiles = null;
+        if ((fLeafGenericStringSimilarityCalculator instanceof NGramsCalculator)
+                && ((NGramsCalculator) fLeafGenericStringSimilarityCalculator).hasProfiles()) {
+            fLeafProfileCalculator = (NGramsCalculator) fLeafGenericStringSimilarityCalculator;
+            fLeafProfiles = new HashMap<Integer, long[]>();
+        }
+        fEvaluations.set(0);
+        fDeadline = fTimeBudget < (Long.MAX_VALUE / 1000000) ? System.nanoTime() + (fTimeBudget * 1000000) : 0;
+        fDegraded = false;
+        if (fIdenticalSubtreesEnabled) {
+            matchIdenticalSubtrees();
+        }
+        if (fSequenceAnchoringEnabled) {
+            matchSequenceAnchors();
+        }
+        markMatchedLeaves(pairIdenticalLeaves());
+        if (fLocalLeafMatchingEnabled) {
+            LeafCandidates matchedLeafs = matchLeavesLocally();
+            if (!fDegraded) {
+                markMatchedLeaves(matchedLeafs);
+            }
+        }
+        if (!fDegraded) {
+            LeafCandidates matchedLeafs = matchLeaves();
+            if (!fDegraded) {
+                markMatchedLeaves(matchedLeafs);
+            }
+        }
+        if (fDegraded) {
+            // the candidates of an interrupted scoring are incomplete and are dropped for the cheap strategies
+            matchIdenticalSubtrees();
+            matchSequenceAnchors();
+        }
+        fLeafProfiles = null;
+        if (fNodeSimilarityCalculator instanceof IndexedNodeSimilarityCalculator) {
+            ((IndexedNodeSimilarityCalculator) fNodeSimilarityCalculator).setTrees(fLeft, fRight);
+        }
+        fNodeStringSimilarities = new HashMap<Long, Double>();
+        matchNodes();
+        fNodeStringSimilarities = null;
+    }
+
+    private void matchNodes() {
+        // the unmatched inner nodes and the root of the right tree by label, in post-order
+        int labels = 0;
+        for (int j = 0; j < fRight.size(); j++) {
+            labels = Math.max(labels, fRight.getLabel(j) + 1);
+        }
+        int[] candidateCounts = new int[labels];
+        for (int j = 0; j < fRight.size(); j++) {
+            if (isNodeCandidate(fRight, fRightMatched, j)) {
+                candidateCounts[fRight.getLabel(j)]++;
+            }
+        }
+        int[][] candidates = new int[labels][];
+        for (int label = 0; label < labels; label++) {
+            candidates[label] = new int[candidateCounts[label]];
+            candidateCounts[label] = 0;
+        }
+        for (int j = 0; j < fRight.size(); j++) {
+            if (isNodeCandidate(fRight, fRightMatched, j)) {
+                int label = fRight.getLabel(j);
+                candidates[label][candidateCounts[label]++] = j;
+            }
+        }
+
+        for (int i = 0; i < fLeft.size(); i++) {
+            int label = fLeft.getLabel(i);
+            if (isNodeCandidate(fLeft, fLeftMatched, i) && (label < labels)) {
+                candidateCounts[label] = matchNode(i, candidates[label], candidateCounts[label]);
+            }
+        }
+    }
+
+    private static boolean isNodeCandidate(IndexedTree tree, BitSet matched, int index) {
+        return !matched.get(index) && (!tree.isLeaf(index) || tree.isRoot(index));
+    }
+
+    /**
+     * Matches the left node with the first equal candidate and removes the claimed candidate from the candidates.
+     * Returns the number of remaining candidates.
+     */
+    private int matchNode(int i, int[] candidates, int count) {
+        for (int k = 0; k < count; k++) {
+            int j = candidates[k];
+            if (equal(i, j)) {
+                fMatch.add(new NodePair(fLeft.getNode(i), fRight.getNode(j)));
+                fLeftMatched.set(i);
+                fRightMatched.set(j);
+                System.arraycopy(candidates, k + 1, candidates, k, count - k - 1);
+                return count - 1;
+            }
+        }
+        return count;
+    }
+
+    private void matchIdenticalSubtrees() {
+        Map<Integer, Integer> leftSubtrees = uniqueSubtrees(fLeft);
+        Map<Integer, Integer> rightSubtrees = uniqueSubtrees(fRight);
+        // reversed post-order visits the ancestors before their descendants, i.e., the largest subtrees first
+        for (int i = fLeft.size() - 1; i >= 0; i--) {
+            if (!fLeftMatched.get(i) && isInnerNode(fLeft, i)) {
+                int hash = fLeft.getNode(i).getStructureHash();
+                Integer j = rightSubtrees.get(hash);
+                if ((leftSubtrees.get(hash) == i) && (j != null) && (j >= 0) && areUnmatched(i, j)
+                        && areIdentical(i, j)) {
+                    matchSubtrees(i, j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the inner nodes of the tree by the hash of their subtree. Hashes that occur more than once map to
+     * <code>-1</code>.
+     */
+    private static Map<Integer, Integer> uniqueSubtrees(IndexedTree tree) {
+        Map<Integer, Integer> result = new HashMap<Integer, Integer>();
+        for (int i = 0; i < tree.size(); i++) {
+            if (isInnerNode(tree, i)) {
+                int hash = tree.getNode(i).getStructureHash();
+                result.put(hash, result.containsKey(hash) ? -1 : i);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isInnerNode(IndexedTree tree, int index) {
+        return !tree.isLeaf(index) && !tree.isRoot(index);
+    }
+
+    private boolean areIdentical(int x, int y) {
+        // the post-order sequences of labels, values, and subtree sizes determine a subtree
+        if (fLeft.getSize(x) != fRight.getSize(y)) {
+            return false;
+        }
+        for (int k = 0; k < fLeft.getSize(x); k++) {
+            if ((fLeft.getLabel(x - k) != fRight.getLabel(y - k)) || (fLeft.getValue(x - k) != fRight.getValue(y - k))
+                    || (fLeft.getSize(x - k) != fRight.getSize(y - k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether no node of either subtree is matched yet, such that matching the subtrees keeps the matching
+     * one-to-one.
+     */
+    private boolean areUnmatched(int x, int y) {
+        // the subtree of a node spans the post-order indices up to the node
+        int leftFirst = x - fLeft.getSize(x) + 1;
+        int rightFirst = y - fRight.getSize(y) + 1;
+        int leftMatched = fLeftMatched.nextSetBit(leftFirst);
+        int rightMatched = fRightMatched.nextSetBit(rightFirst);
+        return ((leftMatched < 0) || (leftMatched > x)) && ((rightMatched < 0) || (rightMatched > y));
+    }
+
+    private void matchSubtrees(int x, int y) {
+        for (int k = 0; k < fLeft.getSize(x); k++) {
+            int i = x - k;
+            int j = y - k;
+            Node left = fLeft.getNode(i);
+            Node right = fRight.getNode(j);
+            fMatch.add(fLeft.isLeaf(i) ? new LeafPair(left, right, 1.0) : new NodePair(left, right));
+            fLeftMatched.set(i);
+            fRightMatched.set(j);
+        }
+    }
+
+    /**
+     * Diffs the pre-order sequences of labels and values of both trees, without the roots, and matches the aligned
+     * nodes: leaves that are aligned with leaves, and inner nodes that are aligned with an identical subtree.
+     */
+    private void matchSequenceAnchors() {
+        Map<Long, Integer> tokens = new HashMap<Long, Integer>();
+        int[] leftNodes = linearize(fLeft);
+        int[] rightNodes = linearize(fRight);
+        int[] aligned = SequenceDiff.align(tokenize(fLeft, leftNodes, tokens), tokenize(fRight, rightNodes, tokens));
+        for (int p = 0; p < leftNodes.length; p++) {
+            int i = leftNodes[p];
+            if (fLeftMatched.get(i) || (aligned[p] < 0)) {
+                continue;
+            }
+            int j = rightNodes[aligned[p]];
+            if (fRightMatched.get(j)) {
+                continue;
+            }
+            if (fLeft.isLeaf(i) && fRight.isLeaf(j)) {
+                fMatch.add(new LeafPair(fLeft.getNode(i), fRight.getNode(j), 1.0));
+                fLeftMatched.set(i);
+                fRightMatched.set(j);
+            } else if (!fLeft.isLeaf(i) && !fRight.isLeaf(j) && areUnmatched(i, j) && areIdentical(i, j)) {
+                matchSubtrees(i, j);
+            }
+        }
+    }
+
+    /**
+     * Returns the nodes of the tree in pre-order, without the root.
+     */
+    private static int[] linearize(IndexedTree tree) {
+        int[] result = new int[tree.size() - 1];
+        for (int i = 0; i < tree.size() - 1; i++) {
+            result[tree.getPreOrder(i) - 1] = i;
+        }
+        return result;
+    }
+
+    private static int[] tokenize(IndexedTree tree, int[] nodes, Map<Long, Integer> tokens) {
+        int[] result = new int[nodes.length];
+        for (int p = 0; p < nodes.length; p++) {
+            Long key = labelAndValue(tree, nodes[p]);
+            Integer token = tokens.get(key);
+            if (token == null) {
+                token = tokens.size();
+                tokens.put(key, token);
+            }
+            result[p] = token;
+        }
+        return result;
+    }
+
+    private void markMatchedLeaves(LeafCandidates matchedLeafs) {
         // sort matching set according to similarity in descending order
-        Collections.sort(matchedLeafs);
-        markMatchedLeaves(matchedLeafs);
-        matchNodes(left, right);
-    }
-
-    @SuppressWarnings("unchecked")
-    private void matchNodes(Node left, Node right) {
-        for (Enumeration<Node> leftNodes = left.postorderEnumeration(); leftNodes.hasMoreElements();) {
-            Node x = leftNodes.nextElement();
-            if (!x.isMatched() && (!x.isLeaf() || x.isRoot())) {
-                for (Enumeration<Node> rightNodes = right.postorderEnumeration(); rightNodes.hasMoreElements()
-                        && !x.isMatched();) {
-                    Node y = rightNodes.nextElement();
-                    if ((!y.isMatched() && (!y.isLeaf() || y.isRoot())) && equal(x, y)) {
-                        fMatch.add(new NodePair(x, y));
-                        x.enableMatched();
-                        y.enableMatched();
-                    }
+        for (int k : matchedLeafs.sortBySimilarity()) {
+            int x = matchedLeafs.getLeft(k);
+            int y = matchedLeafs.getRight(k);
+            if (!(fLeftMatched.get(x) || fRightMatched.get(y))) {
+                fMatch.add(new LeafPair(fLeft.getNode(x), fRight.getNode(y), matchedLeafs.getSimilarity(k)));
+                fLeftMatched.set(x);
+                fRightMatched.set(y);
+            }
+        }
+    }
+
+    /**
+     * Scores the leaves only against the leaves of the corresponding region in the other tree. Regions are spanned by
+     * anchors, i.e., inner nodes with a label and value that occur exactly once in each tree, and by the roots of the
+     * trees. A leaf belongs to the region of its nearest anchor ancestor.
+     */
+    private LeafCandidates matchLeavesLocally() {
+        int[] leftRegions = new int[fLeft.size()];
+        int[] rightRegions = new int[fRight.size()];
+        Map<Integer, Integer> anchors = findAnchors(leftRegions, rightRegions);
+
+        Map<Long, List<Integer>> rightByRegion = new HashMap<Long, List<Integer>>();
+        for (int l = 0; l < fRight.getLeafCount(); l++) {
+            int j = fRight.getLeaf(l);
+            if (!fRightMatched.get(j)) {
+                Long key = ((long) rightRegions[j] << 32) | fRight.getLabel(j);
+                List<Integer> region = rightByRegion.get(key);
+                if (region == null) {
+                    region = new ArrayList<Integer>();
+                    rightByRegion.put(key, region);
                 }
+                region.add(j);
+            }
+        }
+        LeafCandidates result = new LeafCandidates();
+        for (int k = 0; k < fLeft.getLeafCount(); k++) {
+            int i = fLeft.getLeaf(k);
+            List<Integer> region =
+                    rightByRegion.get(((long) anchors.get(leftRegions[i]) << 32) | fLeft.getLabel(i));
+            if (fLeftMatched.get(i) || (region == null)) {
+                continue;
+            }
+            if (!scoreLeaf(i, region, result)) {
+                return result;
             }
         }
+        return result;
     }
 
-    private void markMatchedLeaves(List<LeafPair> matchedLeafs) {
-        for (LeafPair pair : matchedLeafs) {
-            Node x = pair.getLeft();
-            Node y = pair.getRight();
-            if (!(x.isMatched() || y.isMatched())) {
-                fMatch.add(pair);
-                x.enableMatched();
-                y.enableMatched();
+    /**
+     * Pairs the anchors of both trees and assigns each node the anchor of its region, i.e., its nearest anchor
+     * ancestor. Returns the right anchor by left anchor.
+     */
+    private Map<Integer, Integer> findAnchors(int[] leftRegions, int[] rightRegions) {
+        Map<Long, Integer> leftAnchors = uniqueInnerNodes(fLeft);
+        Map<Long, Integer> rightAnchors = uniqueInnerNodes(fRight);
+        Map<Integer, Integer> result = new HashMap<Integer, Integer>();
+        BitSet leftAnchored = new BitSet(fLeft.size());
+        BitSet rightAnchored = new BitSet(fRight.size());
+        for (Map.Entry<Long, Integer> anchor : leftAnchors.entrySet()) {
+            Integer j = rightAnchors.get(anchor.getKey());
+            if ((anchor.getValue() >= 0) && (j != null) && (j >= 0)) {
+                result.put(anchor.getValue(), j);
+                leftAnchored.set(anchor.getValue());
+                rightAnchored.set(j);
             }
         }
+        result.put(fLeft.size() - 1, fRight.size() - 1);
+        assignRegions(fLeft, leftAnchored, leftRegions);
+        assignRegions(fRight, rightAnchored, rightRegions);
+        return result;
     }
 
-    @SuppressWarnings("unchecked")
-    private List<LeafPair> matchLeaves(Node left, Node right) {
-        List<LeafPair> matchedLeafs = new ArrayList<LeafPair>();
-        for (Enumeration<Node> leftNodes = left.postorderEnumeration(); leftNodes.hasMoreElements();) {
-            Node x = leftNodes.nextElement();
-            if (x.isLeaf()) {
-                for (Enumeration<Node> rightNodes = right.postorderEnumeration(); rightNodes.hasMoreElements();) {
-                    Node y = rightNodes.nextElement();
-                    if (y.isLeaf() && haveSameLabel(x, y)) {
-                        double similarity = 0;
+    /**
+     * Returns the inner nodes of the tree by their label and value. Labels and values that occur more than once map
+     * to <code>-1</code>.
+     */
+    private static Map<Long, Integer> uniqueInnerNodes(IndexedTree tree) {
+        Map<Long, Integer> result = new HashMap<Long, Integer>();
+        for (int i = 0; i < tree.size() - 1; i++) {
+            if (!tree.isLeaf(i)) {
+                Long key = labelAndValue(tree, i);
+                result.put(key, result.containsKey(key) ? -1 : i);
+            }
+        }
+        return result;
+    }
 
-                        if (x.getLabel().isComment()) {
-                            similarity =
-                                    fLeafCommentStringSimilarityCalculator.calculateSimilarity(
-                                            x.getValue(),
-                                            y.getValue());
+    private static void assignRegions(IndexedTree tree, BitSet anchored, int[] regions) {
+        // reversed post-order assigns the regions of the ancestors first
+        regions[tree.size() - 1] = tree.size() - 1;
+        for (int i = tree.size() - 2; i >= 0; i--) {
+            int parent = tree.getParent(i);
+            regions[i] = anchored.get(parent) ? parent : regions[parent];
+        }
+    }
 
-                            // Important! Otherwhise nodes that match poorly will make it into final matching set,
-                            // if no better matches are found!
-                            if (similarity >= LEAF_COMMENT_STRING_SIMILARITY_THRESHOLD) {
-                                matchedLeafs.add(new LeafPair(x, y, similarity));
-                            }
+    private double getLeafThreshold(Node x) {
+        return x.getLabel().isComment()
+                ? LEAF_COMMENT_STRING_SIMILARITY_THRESHOLD
+                : fLeafGenericStringSimilarityThreshold;
+    }
 
-                        } else { // ...other statements.
-                            similarity =
-                                    fLeafGenericStringSimilarityCalculator.calculateSimilarity(
-                                            x.getValue(),
-                                            y.getValue());
+    /**
+     * Pairs leaves with identical label and value up front in post-order, as they are perfect matches.
+     */
+    private LeafCandidates pairIdenticalLeaves() {
+        LeafCandidates matchedLeafs = new LeafCandidates();
+        Map<Long, Deque<Integer>> rightIdentical = new HashMap<Long, Deque<Integer>>();
+        for (int l = 0; l < fRight.getLeafCount(); l++) {
+            int j = fRight.getLeaf(l);
+            if (fRightMatched.get(j)) {
+                continue;
+            }
+            Long key = labelAndValue(fRight, j);
+            Deque<Integer> identical = rightIdentical.get(key);
+            if (identical == null) {
+                identical = new ArrayDeque<Integer>();
+                rightIdentical.put(key, identical);
+            }
+            identical.add(j);
+        }
+        for (int k = 0; k < fLeft.getLeafCount(); k++) {
+            int i = fLeft.getLeaf(k);
+            Deque<Integer> identical = rightIdentical.get(labelAndValue(fLeft, i));
+            if (!fLeftMatched.get(i) && (identical != null) && !identical.isEmpty()) {
+                Node x = fLeft.getNode(i);
+                double similarity = calculateLeafSimilarity(x, x);
+                if (similarity == 1.0) {
+                    int j = identical.poll();
+                    matchedLeafs.add(i, j, similarity);
+                }
+            }
+        }
+        return matchedLeafs;
+    }
 
-                            // Important! Otherwise nodes that match poorly will make it into final matching set,
-                            // if no better matches are found!
-                            if (similarity >= fLeafGenericStringSimilarityThreshold) {
-                                matchedLeafs.add(new LeafPair(x, y, similarity));
-                            }
-                        }
-                    }
+    private LeafCandidates matchLeaves() {
+        LeafCandidates matchedLeafs = new LeafCandidates();
+
+        // the remaining leaves are only compared with remaining leaves of the same label
+        Map<Integer, List<Integer>> rightByLabel = new HashMap<Integer, List<Integer>>();
+        for (int l = 0; l < fRight.getLeafCount(); l++) {
+            int j = fRight.getLeaf(l);
+            if (!fRightMatched.get(j)) {
+                List<Integer> bucket = rightByLabel.get(fRight.getLabel(j));
+                if (bucket == null) {
+                    bucket = new ArrayList<Integer>();
+                    rightByLabel.put(fRight.getLabel(j), bucket);
                 }
+                bucket.add(j);
             }
         }
+        List<Integer> rightJoined = new ArrayList<Integer>();
+        LeafJoin join = createLeafJoin(rightJoined);
+        LeafScoring scoring = new LeafScoring(rightByLabel, join, rightJoined);
+        if (fParallelPool != null) {
+            matchedLeafs.addAll(fParallelPool.invoke(new LeafScoringTask(scoring, 0, fLeft.getLeafCount())));
+        } else {
+            matchedLeafs.addAll(scoring.score(0, fLeft.getLeafCount()));
+        }
         return matchedLeafs;
     }
 
-    private boolean haveSameLabel(Node x, Node y) {
-        return x.getLabel() == y.getLabel();
+    /**
+     * Creates the join of the remaining leaves that are compared by their ngrams profiles, if the threshold allows
+     * to filter them. The right leaves of the join are collected in post-order. The profiles of the remaining leaves
+     * are computed in any case, such that the scoring only reads them.
+     */
+    private LeafJoin createLeafJoin(List<Integer> rightJoined) {
+        if (fLeafProfiles == null) {
+            return null;
+        }
+        List<long[]> leftProfiles = new ArrayList<long[]>();
+        for (int k = 0; k < fLeft.getLeafCount(); k++) {
+            int i = fLeft.getLeaf(k);
+            if (!fLeftMatched.get(i) && !fLeft.getNode(i).getLabel().isComment()) {
+                leftProfiles.add(getLeafProfile(fLeft, i));
+            }
+        }
+        List<long[]> rightProfiles = new ArrayList<long[]>();
+        for (int l = 0; l < fRight.getLeafCount(); l++) {
+            int j = fRight.getLeaf(l);
+            if (!fRightMatched.get(j) && !fRight.getNode(j).getLabel().isComment()) {
+                rightJoined.add(j);
+                rightProfiles.add(getLeafProfile(fRight, j));
+            }
+        }
+        if (!LeafJoin.isApplicable(fLeafGenericStringSimilarityThreshold)) {
+            return null;
+        }
+        int[] rightLabels = new int[rightJoined.size()];
+        for (int p = 0; p < rightLabels.length; p++) {
+            rightLabels[p] = fRight.getLabel(rightJoined.get(p));
+        }
+        return new LeafJoin(fLeafGenericStringSimilarityThreshold, leftProfiles, rightProfiles, rightLabels);
     }
 
-    private boolean equal(Node x, Node y) {
+    /**
+     * Scores the left leaf against the given right leaves and adds the pairs that reach the threshold to the result.
+     * Leaves are scored by their ngrams profiles, in one batch if the calculator supports it, or else pairwise. Returns
+     * <code>false</code> if the work budget is exhausted.
+     */
+    private boolean scoreLeaf(int i, List<Integer> candidates, LeafCandidates result) {
+        Node x = fLeft.getNode(i);
+        double threshold = getLeafThreshold(x);
+        boolean profiled = (fLeafProfiles != null) && !x.getLabel().isComment();
+        if (profiled || !(getLeafCalculator(x) instanceof BatchStringSimilarityCalculator)) {
+            for (int j : candidates) {
+                if (!consumeBudget()) {
+                    return false;
+                }
+                double similarity;
+                if (profiled) {
+                    similarity = calculateLeafSimilarity(i, j);
+                } else {
+                    similarity = calculateLeafSimilarity(x, fRight.getNode(j));
+                }
+
+                // Important! Otherwise nodes that match poorly will make it into final matching set,
+                // if no better matches are found!
+                if (similarity >= threshold) {
+                    result.add(i, j, similarity);
+                }
+            }
+            return true;
+        }
+        // the calculator prepares the value of the left leaf once for all candidates
+        List<String> values = new ArrayList<String>(candidates.size());
+        for (int j : candidates) {
+            if (!consumeBudget()) {
+                return false;
+            }
+            values.add(fRight.getNode(j).getValue());
+        }
+        SimilarityHits hits =
+                ((BatchStringSimilarityCalculator) getLeafCalculator(x)).calculateSimilarities(
+                        x.getValue(),
+                        values,
+                        threshold);
+        for (int h = 0; h < hits.size(); h++) {
+            result.add(i, candidates.get(hits.getCandidate(h)), hits.getSimilarity(h));
+        }
+        return true;
+    }
+
+    private StringSimilarityCalculator getLeafCalculator(Node x) {
+        if (x.getLabel().isComment()) {
+            return fLeafCommentStringSimilarityCalculator;
+        }
+        // ...other statements.
+        return fLeafGenericStringSimilarityCalculator;
+    }
+
+    private double calculateLeafSimilarity(Node x, Node y) {
+        return getLeafCalculator(x).calculateSimilarity(x.getValue(), y.getValue());
+    }
+
+    private double calculateLeafSimilarity(int i, int j) {
+        if (fLeft.getValue(i) == fRight.getValue(j)) {
+            return 1.0;
+        }
+        return fLeafProfileCalculator.calculateSimilarity(getLeafProfile(fLeft, i), getLeafProfile(fRight, j));
+    }
+
+    private long[] getLeafProfile(IndexedTree tree, int index) {
+        Integer value = tree.getValue(index);
+        long[] profile = fLeafProfiles.get(value);
+        if (profile == null) {
+            profile = fLeafProfileCalculator.createProfile(tree.getNode(index).getValue());
+            fLeafProfiles.put(value, profile);
+        }
+        return profile;
+    }
+
+    private static Long labelAndValue(IndexedTree tree, int index) {
+        return ((long) tree.getLabel(index) << 32) | tree.getValue(index);
+    }
+
+    private boolean haveSameLabel(int x, int y) {
+        return fLeft.getLabel(x) == fRight.getLabel(y);
+    }
+
+    private boolean equal(int i, int j) {
         // inner nodes
-        if (areInnerOrRootNodes(x, y) && haveSameLabel(x, y)) {
+        if (areInnerOrRootNodes(i, j) && haveSameLabel(i, j)) {
+            Node x = fLeft.getNode(i);
+            Node y = fRight.getNode(j);
             // little heuristic
             if (x.isRoot()) {
                 return x.getValue().equals(x.getValue());
+            } else if (!consumeBudget()) {
+                // out of budget, only identical nodes are matched
+                return fLeft.getValue(i) == fRight.getValue(j);
             } else {
                 double t = fNodeSimilarityThreshold;
                 if (fDynamicEnabled && (x.getLeafCount() < fDynamicDepth) && (y.getLeafCount() < fDynamicDepth)) {
                     t = fDynamicThreshold;
                 }
                 double simNode = fNodeSimilarityCalculator.calculateSimilarity(x, y);
-                double simString = fNodeStringSimilarityCalculator.calculateSimilarity(x.getValue(), y.getValue());
+                // both conditions below fail regardless of the string similarity
+                if (!(simNode >= WEIGHTING_THRESHOLD) && !(simNode >= t)) {
+                    return false;
+                }
+                double simString = calculateNodeStringSimilarity(i, j);
                 if ((simString < fNodeStringSimilarityThreshold) && (simNode >= WEIGHTING_THRESHOLD)) {
                     return true;
                 } else {
@@ -214,15 +769,127 @@ public class BestLeafTreeMatcher implements TreeMatcher {
         return false;
     }
 
-    private boolean areInnerOrRootNodes(Node x, Node y) {
+    /**
+     * Accounts for a similarity evaluation. Returns <code>false</code> and flags the matching as degraded if the
+     * evaluation exceeds the work budget.
+     */
+    private boolean consumeBudget() {
+        if (!fWorkBudgetEnabled || fDegraded) {
+            return !fDegraded;
+        }
+        long evaluations = fEvaluations.incrementAndGet();
+        // the clock is only read every so many evaluations
+        if ((evaluations > fEvaluationBudget)
+                || ((fDeadline != 0) && ((evaluations & 0xFF) == 0) && ((System.nanoTime() - fDeadline) > 0))) {
+            fDegraded = true;
+        }
+        return !fDegraded;
+    }
+
+    private double calculateNodeStringSimilarity(int i, int j) {
+        Long key = ((long) fLeft.getValue(i) << 32) | fRight.getValue(j);
+        Double result = fNodeStringSimilarities.get(key);
+        if (result == null) {
+            result =
+                    fNodeStringSimilarityCalculator.calculateSimilarity(
+                            fLeft.getNode(i).getValue(),
+                            fRight.getNode(j).getValue());
+            fNodeStringSimilarities.put(key, result);
+        }
+        return result;
+    }
+
+    private boolean areInnerOrRootNodes(int x, int y) {
         return areInnerNodes(x, y) || areRootNodes(x, y);
     }
 
-    private boolean areInnerNodes(Node x, Node y) {
-        return (!x.isLeaf() && !y.isLeaf());
+    private boolean areInnerNodes(int x, int y) {
+        return (!fLeft.isLeaf(x) && !fRight.isLeaf(y));
     }
 
-    private boolean areRootNodes(Node x, Node y) {
-        return (x.isRoot() && y.isRoot());
+    private boolean areRootNodes(int x, int y) {
+        return (fLeft.isRoot(x) && fRight.isRoot(y));
+    }
+
+    /**
+     * Scores the remaining leaves of the left tree against the remaining leaves of the right tree with the same
+     * label. Scoring only reads the state of the run, such that ranges of left leaves may be scored in parallel.
+     */
+    private final class LeafScoring {
+
+        private final Map<Integer, List<Integer>> fRightByLabel;
+        private final LeafJoin fJoin;
+        private final List<Integer> fRightJoined;
+
+        LeafScoring(Map<Integer, List<Integer>> rightByLabel, LeafJoin join, List<Integer> rightJoined) {
+            fRightByLabel = rightByLabel;
+            fJoin = join;
+            fRightJoined = rightJoined;
+        }
+
+        /**
+         * Returns the leaf pairs that reach the threshold for the left leaves from position <code>from</code> to
+         * position <code>to</code> (exclusive), in post-order of the left and then the right leaves.
+         */
+        LeafCandidates score(int from, int to) {
+            LeafCandidates result = new LeafCandidates();
+            for (int k = from; k < to; k++) {
+                int i = fLeft.getLeaf(k);
+                List<Integer> bucket = fRightByLabel.get(fLeft.getLabel(i));
+                if (fLeftMatched.get(i) || (bucket == null)) {
+                    continue;
+                }
+                Node x = fLeft.getNode(i);
+                int first = result.size();
+                List<Integer> candidates = bucket;
+                if ((fJoin != null) && !x.getLabel().isComment() && (getLeafProfile(fLeft, i).length > 0)) {
+                    candidates = new ArrayList<Integer>();
+                    for (int p : fJoin.getCandidates(getLeafProfile(fLeft, i), fLeft.getLabel(i))) {
+                        candidates.add(fRightJoined.get(p));
+                    }
+                }
+                if (!scoreLeaf(i, candidates, result)) {
+                    return result;
+                }
+                if (fLeafCandidateLimit > 0) {
+                    result.limit(first, fLeafCandidateLimit);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Splits the left leaves into ranges that are scored on a {@link ForkJoinPool}. The results are concatenated in
+     * the order of the ranges, i.e., in the same order as the sequential scoring.
+     */
+    private static final class LeafScoringTask extends RecursiveTask<LeafCandidates> {
+
+        private static final long serialVersionUID = 1L;
+        private static final int LEAVES_PER_TASK = 64;
+
+        private final LeafScoring fScoring;
+        private final int fFrom;
+        private final int fTo;
+
+        LeafScoringTask(LeafScoring scoring, int from, int to) {
+            fScoring = scoring;
+            fFrom = from;
+            fTo = to;
+        }
+
+        @Override
+        protected LeafCandidates compute() {
+            if ((fTo - fFrom) <= LEAVES_PER_TASK) {
+                return fScoring.score(fFrom, fTo);
+            }
+            int middle = (fFrom + fTo) >>> 1;
+            LeafScoringTask first = new LeafScoringTask(fScoring, fFrom, middle);
+            first.fork();
+            LeafCandidates second = new LeafScoringTask(fScoring, middle, fTo).compute();
+            LeafCandidates result = first.join();
+            result.addAll(second);
+            return result;
+        }
     }
 }
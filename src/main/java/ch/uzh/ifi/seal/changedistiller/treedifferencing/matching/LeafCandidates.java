@@ -0,0 +1,155 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+
+/**
+ * Growable list of scored leaf pairs, held in parallel primitive arrays of the post-order indices of both leaves and
+ * their similarity. Unlike a list of {@link ch.uzh.ifi.seal.changedistiller.treedifferencing.LeafPair}s, adding a
+ * candidate does not allocate an object.
+ * 
+ * @see BestLeafTreeMatcher
+ */
+class LeafCandidates {
+
+    private int[] fLeft = new int[16];
+    private int[] fRight = new int[16];
+    private double[] fSimilarity = new double[16];
+    private int fSize;
+
+    int size() {
+        return fSize;
+    }
+
+    int getLeft(int k) {
+        return fLeft[k];
+    }
+
+    int getRight(int k) {
+        return fRight[k];
+    }
+
+    double getSimilarity(int k) {
+        return fSimilarity[k];
+    }
+
+    /**
+     * Appends the candidate pair.
+     * 
+     * @param left
+     *            index of the left leaf
+     * @param right
+     *            index of the right leaf
+     * @param similarity
+     *            of the leaves
+     */
+    void add(int left, int right, double similarity) {
+        if (fSize == fLeft.length) {
+            fLeft = Arrays.copyOf(fLeft, 2 * fSize);
+            fRight = Arrays.copyOf(fRight, 2 * fSize);
+            fSimilarity = Arrays.copyOf(fSimilarity, 2 * fSize);
+        }
+        fLeft[fSize] = left;
+        fRight[fSize] = right;
+        fSimilarity[fSize] = similarity;
+        fSize++;
+    }
+
+    /**
+     * Appends the candidate pairs of the other list.
+     * 
+     * @param other
+     *            whose candidates are appended
+     */
+    void addAll(LeafCandidates other) {
+        for (int k = 0; k < other.fSize; k++) {
+            add(other.fLeft[k], other.fRight[k], other.fSimilarity[k]);
+        }
+    }
+
+    /**
+     * Keeps only the <code>limit</code> most similar candidates from position <code>from</code> on. Equally similar
+     * candidates are kept in the order in which they were added, and the kept candidates stay in that order.
+     * 
+     * @param from
+     *            the position of the first candidate to limit
+     * @param limit
+     *            the number of candidates to keep
+     */
+    void limit(int from, int limit) {
+        if ((fSize - from) <= limit) {
+            return;
+        }
+        int[] kept = sortBySimilarity(from, fSize);
+        Arrays.sort(kept, 0, limit);
+        for (int k = 0; k < limit; k++) {
+            fLeft[from + k] = fLeft[kept[k]];
+            fRight[from + k] = fRight[kept[k]];
+            fSimilarity[from + k] = fSimilarity[kept[k]];
+        }
+        fSize = from + limit;
+    }
+
+    /**
+     * Returns the positions of the candidates sorted by descending similarity. The sort is stable, i.e., equally
+     * similar candidates keep the order in which they were added.
+     * 
+     * @return the positions of the candidates in descending order of their similarity
+     */
+    int[] sortBySimilarity() {
+        return sortBySimilarity(0, fSize);
+    }
+
+    /**
+     * Bottom-up merge sort of the positions from <code>from</code> to <code>to</code> (exclusive).
+     */
+    private int[] sortBySimilarity(int from, int to) {
+        int size = to - from;
+        int[] order = new int[size];
+        for (int k = 0; k < size; k++) {
+            order[k] = from + k;
+        }
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int middle = Math.min(low + width, size);
+                int high = Math.min(low + (2 * width), size);
+                int i = low;
+                int j = middle;
+                for (int k = low; k < high; k++) {
+                    // take from the right run only if strictly more similar, which keeps the sort stable
+                    if ((j < high)
+                            && ((i >= middle) || (Double.compare(fSimilarity[order[j]], fSimilarity[order[i]]) > 0))) {
+                        buffer[k] = order[j++];
+                    } else {
+                        buffer[k] = order[i++];
+                    }
+                }
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+}
@@ -0,0 +1,188 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Threshold-aware similarity join over ngrams profiles, compared by the Dice coefficient.
+ * <p>
+ * The right profiles are put into an inverted index from ngram to profile. Only the prefixes of the profiles are
+ * indexed and probed, with the ngrams ordered by ascending frequency: two profiles that reach the threshold share
+ * enough ngrams that their prefixes share at least one. Candidates whose size rules out the threshold are dropped as
+ * well. The filters are conservative, i.e., every pair that reaches the threshold is a candidate, and the candidates
+ * still have to be scored exactly.
+ * 
+ * @see BestLeafTreeMatcher
+ */
+class LeafJoin {
+
+    // slack for rounding errors, such that the filters never drop a pair that reaches the threshold
+    private static final double EPSILON = 1e-6;
+
+    private final double fThreshold;
+    private final Map<Long, Integer> fRanks = new HashMap<Long, Integer>();
+    private final Map<Long, List<Integer>> fIndex = new HashMap<Long, List<Integer>>();
+    private final int[] fRightSizes;
+
+    /**
+     * Creates a new join of the given right profiles.
+     * 
+     * @param threshold
+     *            the similarity that the pairs of the join must reach, see {@link #isApplicable(double)}
+     * @param leftProfiles
+     *            that are going to be joined with the right profiles
+     * @param rightProfiles
+     *            to join
+     * @param rightLabels
+     *            the label ids of the right profiles; only profiles with the same label are joined
+     */
+    LeafJoin(double threshold, List<long[]> leftProfiles, List<long[]> rightProfiles, int[] rightLabels) {
+        fThreshold = threshold;
+        rankNGrams(leftProfiles, rightProfiles);
+        fRightSizes = new int[rightProfiles.size()];
+        for (int p = 0; p < rightProfiles.size(); p++) {
+            int[] ranks = rank(rightProfiles.get(p));
+            fRightSizes[p] = ranks.length;
+            for (int k = 0; k < getPrefixLength(ranks.length); k++) {
+                Long key = key(rightLabels[p], ranks[k]);
+                List<Integer> postings = fIndex.get(key);
+                if (postings == null) {
+                    postings = new ArrayList<Integer>();
+                    fIndex.put(key, postings);
+                }
+                postings.add(p);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the join can be used for the given threshold. Below or at zero, every pair reaches the
+     * threshold.
+     * 
+     * @param threshold
+     *            the similarity that the pairs of the join must reach
+     * @return <code>true</code> if the join filters for the threshold, <code>false</code> otherwise
+     */
+    static boolean isApplicable(double threshold) {
+        return (threshold > 0.0) && (threshold <= 1.0);
+    }
+
+    /**
+     * Returns the right profiles with the same label that may reach the threshold with the given profile. The join is
+     * not changed by the query, i.e., several threads may query it at the same time.
+     * 
+     * @param profile
+     *            a left profile, must not be empty
+     * @param label
+     *            the label id of the left profile
+     * @return the positions of the candidate right profiles in ascending order
+     */
+    int[] getCandidates(long[] profile, int label) {
+        int[] ranks = rank(profile);
+        int size = ranks.length;
+        int minSize = (int) Math.ceil((size * fThreshold / (2.0 - fThreshold)) - EPSILON);
+        double maxSize = (size * (2.0 - fThreshold) / fThreshold) + EPSILON;
+        int[] result = new int[size];
+        int count = 0;
+        for (int k = 0; k < getPrefixLength(size); k++) {
+            List<Integer> postings = fIndex.get(key(label, ranks[k]));
+            if (postings != null) {
+                for (int p : postings) {
+                    if ((fRightSizes[p] >= minSize) && (fRightSizes[p] <= maxSize)) {
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, (2 * count) + 1);
+                        }
+                        result[count++] = p;
+                    }
+                }
+            }
+        }
+        // a candidate that shares several ngrams of the prefix is found once per ngram
+        Arrays.sort(result, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if ((distinct == 0) || (result[distinct - 1] != result[i])) {
+                result[distinct++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, distinct);
+    }
+
+    /**
+     * Returns the number of leading ngrams that a profile shares with every profile that reaches the threshold with
+     * it, if there is any.
+     */
+    private int getPrefixLength(int size) {
+        // |x & y| >= t * (|x| + |y|) / 2 >= t * |x| / (2 - t), because |y| >= t * |x| / (2 - t)
+        int minOverlap = Math.max(1, (int) Math.ceil((size * fThreshold / (2.0 - fThreshold)) - EPSILON));
+        return Math.max(0, size - minOverlap + 1);
+    }
+
+    /**
+     * Orders the ngrams by ascending frequency, such that the prefixes consist of rare ngrams.
+     */
+    private void rankNGrams(List<long[]> leftProfiles, List<long[]> rightProfiles) {
+        final Map<Long, Integer> frequencies = new HashMap<Long, Integer>();
+        countNGrams(leftProfiles, frequencies);
+        countNGrams(rightProfiles, frequencies);
+        Long[] ngrams = frequencies.keySet().toArray(new Long[frequencies.size()]);
+        Arrays.sort(ngrams, new Comparator<Long>() {
+
+            @Override
+            public int compare(Long left, Long right) {
+                int result = frequencies.get(left).compareTo(frequencies.get(right));
+                return result != 0 ? result : left.compareTo(right);
+            }
+        });
+        for (int i = 0; i < ngrams.length; i++) {
+            fRanks.put(ngrams[i], i);
+        }
+    }
+
+    private static void countNGrams(List<long[]> profiles, Map<Long, Integer> frequencies) {
+        for (long[] profile : profiles) {
+            for (long ngram : profile) {
+                Integer frequency = frequencies.get(ngram);
+                frequencies.put(ngram, frequency == null ? 1 : frequency + 1);
+            }
+        }
+    }
+
+    private int[] rank(long[] profile) {
+        int[] result = new int[profile.length];
+        for (int i = 0; i < profile.length; i++) {
+            result[i] = fRanks.get(profile[i]);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static Long key(int label, int rank) {
+        return ((long) label << 32) | rank;
+    }
+
+}
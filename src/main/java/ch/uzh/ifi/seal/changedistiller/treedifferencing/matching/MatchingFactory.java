@@ -70,4 +70,19 @@ public final class MatchingFactory {
         return result;
     }
 
+    /**
+     * Returns the default {@link TreeMatcher} {@link BestLeafTreeMatcher} with sequence anchored matching enabled,
+     * i.e., the nodes in the unchanged runs of the linearized trees are matched up front.
+     * 
+     * @param matchingSet
+     *            in which the matcher stores the match pairs
+     * @return the sequence anchored best leaf tree matcher
+     * @see TreeMatcher#enableSequenceAnchoredMatching()
+     */
+    public static TreeMatcher getSequenceAnchoredMatcher(Set<NodePair> matchingSet) {
+        TreeMatcher result = getMatcher(matchingSet);
+        result.enableSequenceAnchoredMatching();
+        return result;
+    }
+
 }
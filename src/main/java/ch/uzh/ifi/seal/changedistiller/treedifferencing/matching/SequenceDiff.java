@@ -0,0 +1,152 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Patience diff of two token sequences.
+ * <p>
+ * The common prefix and suffix of a range are aligned first. Within the rest, the tokens that occur exactly once in
+ * both sequences are aligned along their longest increasing subsequence, and the ranges between these tokens are
+ * diffed in the same way. Ranges without such tokens are left unaligned beyond their common prefix and suffix.
+ * 
+ * @see BestLeafTreeMatcher
+ */
+final class SequenceDiff {
+
+    private SequenceDiff() {}
+
+    /**
+     * Aligns the two token sequences.
+     * 
+     * @param left
+     *            the left tokens
+     * @param right
+     *            the right tokens
+     * @return for each left position the aligned right position, <code>-1</code> if the left token is not aligned;
+     *         the aligned positions are strictly increasing
+     */
+    static int[] align(int[] left, int[] right) {
+        int[] result = new int[left.length];
+        Arrays.fill(result, -1);
+        Deque<int[]> ranges = new ArrayDeque<int[]>();
+        ranges.push(new int[] {0, left.length, 0, right.length});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int leftLow = range[0];
+            int leftHigh = range[1];
+            int rightLow = range[2];
+            int rightHigh = range[3];
+            while ((leftLow < leftHigh) && (rightLow < rightHigh) && (left[leftLow] == right[rightLow])) {
+                result[leftLow++] = rightLow++;
+            }
+            while ((leftLow < leftHigh) && (rightLow < rightHigh) && (left[leftHigh - 1] == right[rightHigh - 1])) {
+                result[--leftHigh] = --rightHigh;
+            }
+            if ((leftLow == leftHigh) || (rightLow == rightHigh)) {
+                continue;
+            }
+            int previousLeft = leftLow;
+            int previousRight = rightLow;
+            for (int[] anchor : findUniqueAnchors(left, leftLow, leftHigh, right, rightLow, rightHigh)) {
+                ranges.push(new int[] {previousLeft, anchor[0], previousRight, anchor[1]});
+                result[anchor[0]] = anchor[1];
+                previousLeft = anchor[0] + 1;
+                previousRight = anchor[1] + 1;
+            }
+            if (previousLeft > leftLow) {
+                ranges.push(new int[] {previousLeft, leftHigh, previousRight, rightHigh});
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the longest increasing sequence of positions of the tokens that occur exactly once in both ranges.
+     */
+    private static List<int[]> findUniqueAnchors(
+            int[] left,
+            int leftLow,
+            int leftHigh,
+            int[] right,
+            int rightLow,
+            int rightHigh) {
+        // occurrences and last position of each token in the left and right range
+        Map<Integer, int[]> occurrences = new HashMap<Integer, int[]>();
+        for (int i = leftLow; i < leftHigh; i++) {
+            int[] occurrence = occurrences.get(left[i]);
+            if (occurrence == null) {
+                occurrence = new int[4];
+                occurrences.put(left[i], occurrence);
+            }
+            occurrence[0]++;
+            occurrence[1] = i;
+        }
+        for (int j = rightLow; j < rightHigh; j++) {
+            int[] occurrence = occurrences.get(right[j]);
+            if (occurrence != null) {
+                occurrence[2]++;
+                occurrence[3] = j;
+            }
+        }
+        List<int[]> unique = new ArrayList<int[]>();
+        for (int i = leftLow; i < leftHigh; i++) {
+            int[] occurrence = occurrences.get(left[i]);
+            if ((occurrence[0] == 1) && (occurrence[2] == 1)) {
+                unique.add(new int[] {i, occurrence[3]});
+            }
+        }
+
+        // patience sorting on the right positions, with back pointers to rebuild the sequence
+        int[] tails = new int[unique.size()];
+        int[] predecessors = new int[unique.size()];
+        int length = 0;
+        for (int k = 0; k < unique.size(); k++) {
+            int position = unique.get(k)[1];
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (unique.get(tails[middle])[1] < position) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            predecessors[k] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = k;
+            length = Math.max(length, low + 1);
+        }
+        int[][] result = new int[length][];
+        for (int k = length > 0 ? tails[length - 1] : -1, l = length - 1; k >= 0; k = predecessors[k], l--) {
+            result[l] = unique.get(k);
+        }
+        return Arrays.asList(result);
+    }
+
+}
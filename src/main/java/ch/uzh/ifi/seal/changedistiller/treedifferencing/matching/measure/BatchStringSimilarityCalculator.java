@@ -0,0 +1,49 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+
+/**
+ * Interface for string similarity calculators that compare one query with several candidates at once.
+ * 
+ * @see NGramsCalculator
+ * @see TokenBasedCalculator
+ * @see LevenshteinSimilarityCalculator
+ */
+public interface BatchStringSimilarityCalculator extends StringSimilarityCalculator {
+
+    /**
+     * Returns the similarities between a query and several candidates that reach the given threshold. The similarity
+     * of a hit equals <code>calculateSimilarity(query, candidate)</code>; implementations prepare the query once for
+     * all candidates.
+     * 
+     * @param query
+     *            to calculate the similarities with the candidates
+     * @param candidates
+     *            to calculate the similarities with the query
+     * @param threshold
+     *            that the similarity of a hit reaches
+     * @return the candidates whose similarity to the query is at least the threshold
+     */
+    SimilarityHits calculateSimilarities(String query, List<String> candidates, double threshold);
+
+}
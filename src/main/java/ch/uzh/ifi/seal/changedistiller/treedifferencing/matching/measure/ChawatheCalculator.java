@@ -20,61 +20,126 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
  * #L%
  */
 
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.Set;
 
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.IndexedTree;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.Node;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.NodePair;
 
 /**
  * Implementation of the default inner node similarity calculator proposed by Chawathe.
+ * <p>
+ * If the indexed trees are set, the matched leaves are prepared once, such that the similarity of two indexed nodes
+ * is calculated with binary searches instead of a pass over the whole match set.
  * 
  * @author Beat Fluri
  */
-public class ChawatheCalculator implements NodeSimilarityCalculator {
+public class ChawatheCalculator implements IndexedNodeSimilarityCalculator {
 
     private Set<? extends NodePair> fLeafMatchSet;
+    private IndexedTree fLeft;
+    private IndexedTree fRight;
+
+    // matched non-comment leaves as of setTrees, as (left, right) indices sorted by the left index
+    private int[] fPairLeft;
+    private int[] fPairRight;
+
+    // sorted right indices of the pairs below the left node that was compared last
+    private int fPartnersOf = -1;
+    private int[] fPartners;
 
     @Override
     public void setLeafMatchSet(Set<? extends NodePair> leafMatchSet) {
         fLeafMatchSet = leafMatchSet;
     }
 
+    @Override
+    public void setTrees(IndexedTree left, IndexedTree right) {
+        fLeft = left;
+        fRight = right;
+        fPartnersOf = -1;
+        fPartners = null;
+
+        long[] pairs = new long[fLeafMatchSet.size()];
+        int size = 0;
+        for (NodePair p : fLeafMatchSet) {
+            int l = left.indexOf(p.getLeft());
+            int r = right.indexOf(p.getRight());
+            if ((l >= 0) && left.isLeaf(l) && !isComment(p.getLeft()) && (r >= 0) && right.isLeaf(r)
+                    && !isComment(p.getRight())) {
+                pairs[size++] = ((long) l << 32) | r;
+            }
+        }
+        Arrays.sort(pairs, 0, size);
+        fPairLeft = new int[size];
+        fPairRight = new int[size];
+        for (int i = 0; i < size; i++) {
+            fPairLeft[i] = (int) (pairs[i] >>> 32);
+            fPairRight[i] = (int) pairs[i];
+        }
+    }
+
     @Override
     public double calculateSimilarity(Node left, Node right) {
+        int x = indexOf(fLeft, left);
+        int y = indexOf(fRight, right);
         int common = 0;
-        // common(x, y) = {(w, z) in M | x contains w, and y contains z}
-        // |common|
-        for (NodePair p : fLeafMatchSet) {
-            Node l = p.getLeft();
-            Node r = p.getRight();
-            if (left.isLeafDescendant(l) && !isComment(l) && right.isLeafDescendant(r) && !isComment(r)) {
-                common++;
+        if ((x >= 0) && (y >= 0)) {
+            common = countCommonLeaves(x, y);
+        } else {
+            // common(x, y) = {(w, z) in M | x contains w, and y contains z}
+            // |common|
+            for (NodePair p : fLeafMatchSet) {
+                Node l = p.getLeft();
+                Node r = p.getRight();
+                if (left.isLeafDescendant(l) && !isComment(l) && right.isLeafDescendant(r) && !isComment(r)) {
+                    common++;
+                }
             }
         }
         int max = maxLeafStatements(left, right);
         return (double) common / (double) max;
     }
 
-    private int maxLeafStatements(Node left, Node right) {
-        int leftLeafStatements = left.getLeafCount() - numberOfCommentNodes(left);
-        int rightLeafStatements = right.getLeafCount() - numberOfCommentNodes(right);
-        return Math.max(leftLeafStatements, rightLeafStatements);
+    private int indexOf(IndexedTree tree, Node node) {
+        return tree == null ? -1 : tree.indexOf(node);
     }
 
-    @SuppressWarnings("unchecked")
-    private int numberOfCommentNodes(Node node) {
-        int count = 0;
+    /**
+     * The leaves of a subtree occupy a contiguous range of post-order indices, so the common leaves are the pairs
+     * below x whose right index lies in the range of y.
+     */
+    private int countCommonLeaves(int x, int y) {
+        if (fPartnersOf != x) {
+            int from = lowerBound(fPairLeft, 0, fPairLeft.length, x - fLeft.getSize(x) + 1);
+            int to = lowerBound(fPairLeft, from, fPairLeft.length, x + 1);
+            fPartners = Arrays.copyOfRange(fPairRight, from, to);
+            Arrays.sort(fPartners);
+            fPartnersOf = x;
+        }
+        return lowerBound(fPartners, 0, fPartners.length, y + 1)
+                - lowerBound(fPartners, 0, fPartners.length, y - fRight.getSize(y) + 1);
+    }
 
-        Enumeration<Node> nodes = node.breadthFirstEnumeration();
-        while (nodes.hasMoreElements()) {
-            Node child = nodes.nextElement();
-            if (isComment(child)) {
-                count++;
+    private static int lowerBound(int[] values, int from, int to, int key) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
         }
+        return lo;
+    }
 
-        return count;
+    private int maxLeafStatements(Node left, Node right) {
+        int leftLeafStatements = left.getLeafCount() - left.getCommentCount();
+        int rightLeafStatements = right.getLeafCount() - right.getCommentCount();
+        return Math.max(leftLeafStatements, rightLeafStatements);
     }
 
     private boolean isComment(Node node) {
@@ -0,0 +1,43 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.IndexedTree;
+
+/**
+ * Interface for (inner) node similarity calculators that compare the nodes by their indices in the indexed trees.
+ * 
+ * @see ChawatheCalculator
+ */
+public interface IndexedNodeSimilarityCalculator extends NodeSimilarityCalculator {
+
+    /**
+     * Sets the indexed left and right trees of the nodes to compare. The calculator may prepare the leaf matching set
+     * at this point; hence, it is set once the leaves are matched.
+     * 
+     * @param left
+     *            the indexed tree of the left nodes
+     * @param right
+     *            the indexed tree of the right nodes
+     */
+    void setTrees(IndexedTree left, IndexedTree right);
+
+}
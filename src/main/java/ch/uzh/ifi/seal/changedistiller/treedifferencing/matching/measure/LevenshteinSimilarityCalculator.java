@@ -20,39 +20,285 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
  * #L%
  */
 
-import org.apache.commons.lang3.StringUtils;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Implementation of a {@link StringSimilarityCalculator} based on the Levenshtein distance.
+ * <p>
+ * The distance is computed with the bit-parallel algorithm of Myers in the blocked form of Hyyr&ouml;, i.e., 64 chars
+ * of the shorter string per <code>long</code> and one pass over the longer string. If the caller passes a similarity
+ * threshold, see {@link #calculateSimilarity(String, String, double)}, the threshold bounds the distance: strings whose
+ * lengths differ too much are rejected right away, small bounds are computed by the diagonal band of Ukkonen, and the
+ * computation stops as soon as the bound cannot be kept anymore. A batch of comparisons creates the match masks of the
+ * query only once.
  * 
  * @author Beat Fluri
  */
-public class LevenshteinSimilarityCalculator implements StringSimilarityCalculator {
+public class LevenshteinSimilarityCalculator implements BatchStringSimilarityCalculator {
+
+    private static final int WORD = Long.SIZE;
 
     @Override
     public double calculateSimilarity(String left, String right) {
-        double levenshteinDistance = StringUtils.getLevenshteinDistance(left, right);
-        double worstCaseDistance = calculateWorstCaseDistance(left, right);
+        double worstCaseDistance = Math.max(left.length(), right.length());
         if (worstCaseDistance != 0d) {
+            double levenshteinDistance = calculateDistance(left, right, Integer.MAX_VALUE);
             return (worstCaseDistance - levenshteinDistance) / worstCaseDistance;
         }
         return 0d;
     }
 
-    private double calculateWorstCaseDistance(String source, String target) {
-        double sourceLen = source.length();
-        double targetLen = target.length();
-        double maxDistance = 0d;
+    /**
+     * Returns the similarity between two strings if it reaches the given threshold. Otherwise, the computation stops
+     * as soon as the threshold is unreachable and <code>0</code> is returned. A similarity at or above the threshold
+     * equals the one of {@link #calculateSimilarity(String, String)}.
+     * 
+     * @param left
+     *            to calculate the similarity with right
+     * @param right
+     *            to calculate the similarity with left
+     * @param threshold
+     *            the similarity of interest to the caller
+     * @return the similarity between the two strings if it is at least the threshold, <code>0</code> otherwise
+     */
+    public double calculateSimilarity(String left, String right, double threshold) {
+        int worstCaseDistance = Math.max(left.length(), right.length());
+        if (worstCaseDistance == 0) {
+            return 0d;
+        }
+        int maximumDistance = getMaximumDistance(worstCaseDistance, threshold);
+        if (maximumDistance < 0) {
+            return 0d;
+        }
+        int levenshteinDistance = calculateDistance(left, right, maximumDistance);
+        if (levenshteinDistance > maximumDistance) {
+            return 0d;
+        }
+        return (worstCaseDistance - (double) levenshteinDistance) / worstCaseDistance;
+    }
+
+    @Override
+    public SimilarityHits calculateSimilarities(String query, List<String> candidates, double threshold) {
+        SimilarityHits result = new SimilarityHits();
+        MatchMasks masks = query.isEmpty() ? null : new MatchMasks(query);
+        for (int k = 0; k < candidates.size(); k++) {
+            String candidate = candidates.get(k);
+            int worstCaseDistance = Math.max(query.length(), candidate.length());
+            double similarity = 0d;
+            if (worstCaseDistance != 0) {
+                int maximumDistance = getMaximumDistance(worstCaseDistance, threshold);
+                if (maximumDistance < 0) {
+                    continue;
+                }
+                int levenshteinDistance = calculateDistance(query, masks, candidate, maximumDistance);
+                if (levenshteinDistance > maximumDistance) {
+                    continue;
+                }
+                similarity = (worstCaseDistance - (double) levenshteinDistance) / worstCaseDistance;
+            }
+            if (similarity >= threshold) {
+                result.add(k, similarity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the largest distance whose similarity reaches the threshold, <code>-1</code> if there is none.
+     */
+    private static int getMaximumDistance(int worstCaseDistance, double threshold) {
+        double worst = worstCaseDistance;
+        int result = (int) Math.max(-1d, Math.min(worst, Math.floor(worst * (1d - threshold))));
+        // correct the rounding of the estimate against the similarity as it is calculated
+        while ((result >= 0) && ((worst - result) / worst < threshold)) {
+            result--;
+        }
+        while ((result < worstCaseDistance) && ((worst - (result + 1)) / worst >= threshold)) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the Levenshtein distance between the two strings if it is at most the given bound, a value above the
+     * bound otherwise.
+     */
+    private static int calculateDistance(String left, String right, int bound) {
+        String pattern = left.length() <= right.length() ? left : right;
+        String text = pattern == left ? right : left;
+        return calculateDistance(pattern, null, text, bound);
+    }
+
+    /**
+     * Returns the Levenshtein distance between the pattern and the text if it is at most the given bound, a value
+     * above the bound otherwise. The match masks of the pattern are created if they are not given.
+     */
+    private static int calculateDistance(String pattern, MatchMasks masks, String text, int bound) {
+        int lengthDifference = Math.abs(text.length() - pattern.length());
+        if (lengthDifference > bound) {
+            return bound + 1;
+        }
+        if (pattern.isEmpty() || text.isEmpty() || pattern.equals(text)) {
+            return lengthDifference;
+        }
+        int blocks = (pattern.length() + WORD - 1) / WORD;
+        // a cell of the band costs about as much as a block of the bit vectors
+        if (2L * bound + 1 < blocks) {
+            return calculateBandedDistance(pattern, text, bound);
+        }
+        return calculateBitParallelDistance(masks == null ? new MatchMasks(pattern) : masks, text, bound);
+    }
+
+    /**
+     * Myers' bit-vector algorithm: the vertical deltas of a column of the dynamic programming matrix are held as bit
+     * vectors of positive and negative deltas over the pattern, split into blocks of 64 chars. The horizontal delta
+     * leaving a block is carried into the next one.
+     */
+    private static int calculateBitParallelDistance(MatchMasks masks, String text, int bound) {
+        int m = masks.fLength;
+        int n = text.length();
+        int blocks = masks.fBlocks;
+        long[] pv = new long[blocks];
+        long[] mv = new long[blocks];
+        Arrays.fill(pv, -1L);
+        long last = 1L << ((m - 1) % WORD);
+        int score = m;
+        for (int j = 0; j < n; j++) {
+            int offset = masks.offsetOf(text.charAt(j));
+            // the first row of the matrix increases by one per column
+            int carry = 1;
+            for (int b = 0; b < blocks; b++) {
+                long eq = offset >= 0 ? masks.fMasks[offset + b] : 0L;
+                long p = pv[b];
+                long q = mv[b];
+                long xv = eq | q;
+                if (carry < 0) {
+                    eq |= 1L;
+                }
+                long xh = (((eq & p) + p) ^ p) | eq;
+                long ph = q | ~(xh | p);
+                long mh = p & xh;
+                long high = b == blocks - 1 ? last : Long.MIN_VALUE;
+                int out = 0;
+                if ((ph & high) != 0) {
+                    out = 1;
+                } else if ((mh & high) != 0) {
+                    out = -1;
+                }
+                ph <<= 1;
+                mh <<= 1;
+                if (carry < 0) {
+                    mh |= 1L;
+                } else if (carry > 0) {
+                    ph |= 1L;
+                }
+                pv[b] = mh | ~(xv | ph);
+                mv[b] = ph & xv;
+                carry = out;
+            }
+            score += carry;
+            // each remaining column lowers the distance by one at most
+            if (score - (n - j - 1) > bound) {
+                return bound + 1;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Match masks of a pattern: the distinct chars of the pattern are numbered in an open-addressing table, and each
+     * owns a mask per block with the bits of its positions in the pattern.
+     */
+    private static final class MatchMasks {
 
-        if (targetLen == sourceLen) {
-            maxDistance = sourceLen;
-        } else if (targetLen > sourceLen) {
-            maxDistance = sourceLen;
-            maxDistance += targetLen - sourceLen;
-        } else {
-            maxDistance = targetLen;
-            maxDistance += sourceLen - targetLen;
+        private final int fLength;
+        private final int fBlocks;
+        private final int[] fChars;
+        private final int[] fIds;
+        private final long[] fMasks;
+
+        MatchMasks(String pattern) {
+            fLength = pattern.length();
+            fBlocks = (fLength + WORD - 1) / WORD;
+            int capacity = Integer.highestOneBit(Math.min(fLength, Character.MAX_VALUE + 1)) << 2;
+            fChars = new int[capacity];
+            fIds = new int[capacity];
+            Arrays.fill(fChars, -1);
+            int distinct = 0;
+            for (int i = 0; i < fLength; i++) {
+                int slot = slotOf(pattern.charAt(i));
+                if (fChars[slot] < 0) {
+                    fChars[slot] = pattern.charAt(i);
+                    fIds[slot] = distinct++;
+                }
+            }
+            fMasks = new long[distinct * fBlocks];
+            for (int i = 0; i < fLength; i++) {
+                fMasks[offsetOf(pattern.charAt(i)) + i / WORD] |= 1L << (i % WORD);
+            }
+        }
+
+        /**
+         * Returns the position of the first mask of the char, <code>-1</code> if the char does not occur in the
+         * pattern.
+         */
+        int offsetOf(char c) {
+            int slot = slotOf(c);
+            return fChars[slot] < 0 ? -1 : fIds[slot] * fBlocks;
+        }
+
+        private int slotOf(char c) {
+            int mask = fChars.length - 1;
+            int slot = (c * 0x9E3779B9 >>> 16) & mask;
+            while ((fChars[slot] >= 0) && (fChars[slot] != c)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Ukkonen's band: only the cells at most <code>bound</code> diagonals off the main diagonal can lie on a path of
+     * at most <code>bound</code> edits, and the computation stops once a whole row of the band exceeds the bound.
+     */
+    private static int calculateBandedDistance(String pattern, String text, int bound) {
+        int m = pattern.length();
+        int n = text.length();
+        int exceeded = bound + 1;
+        int[] previous = new int[n + 1];
+        int[] current = new int[n + 1];
+        int hi = Math.min(n, bound);
+        for (int j = 0; j <= hi; j++) {
+            previous[j] = j;
+        }
+        if (hi < n) {
+            previous[hi + 1] = exceeded;
+        }
+        for (int i = 1; i <= m; i++) {
+            int lo = Math.max(1, i - bound);
+            hi = Math.min(n, i + bound);
+            current[lo - 1] = (lo == 1) && (i <= bound) ? i : exceeded;
+            int rowMinimum = current[lo - 1];
+            char c = pattern.charAt(i - 1);
+            for (int j = lo; j <= hi; j++) {
+                int distance = previous[j - 1] + (c == text.charAt(j - 1) ? 0 : 1);
+                distance = Math.min(distance, current[j - 1] + 1);
+                distance = Math.min(distance, previous[j] + 1);
+                distance = Math.min(distance, exceeded);
+                current[j] = distance;
+                rowMinimum = Math.min(rowMinimum, distance);
+            }
+            if (hi < n) {
+                current[hi + 1] = exceeded;
+            }
+            if (rowMinimum > bound) {
+                return exceeded;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
         }
-        return maxDistance;
+        return previous[n];
     }
 }
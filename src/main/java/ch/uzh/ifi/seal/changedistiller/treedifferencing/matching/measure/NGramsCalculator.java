@@ -20,15 +20,34 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
  * #L%
  */
 
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 
 /**
  * Implementation of the ngrams similarity measure.
+ * <p>
+ * For n up to {@value #MAX_PACKED_N}, the ngrams of a string are packed into <code>long</code>s, 16 bits per char.
+ * Two strings are compared by collecting their packed ngrams in open-addressing sets that are reused by each thread,
+ * such that a comparison does not allocate once the sets have grown to the string lengths. A batch of comparisons
+ * collects the ngrams of the query only once. Alternatively, profiles,
+ * i.e., the sorted packed ngrams without duplicates, may be created once per string and compared many times, see
+ * {@link #createProfile(String)}.
  * 
  * @author Beat Fluri
  * 
  */
-public class NGramsCalculator implements StringSimilarityCalculator {
+public class NGramsCalculator implements BatchStringSimilarityCalculator {
+
+    private static final int MAX_PACKED_N = Long.SIZE / Character.SIZE;
+
+    private static final ThreadLocal<NGramSets> SETS = new ThreadLocal<NGramSets>() {
+
+        @Override
+        protected NGramSets initialValue() {
+            return new NGramSets();
+        }
+    };
 
     private int fN;
 
@@ -48,7 +67,110 @@ public class NGramsCalculator implements StringSimilarityCalculator {
 
     @Override
     public double calculateSimilarity(String left, String right) {
-        return left.equals(right) ? 1.0 : getSimilarity(createNGrams(left), createNGrams(right));
+        if (left.equals(right)) {
+            return 1.0;
+        }
+        if (hasProfiles()) {
+            NGramSets sets = SETS.get();
+            sets.setQuery(left, fN);
+            return sets.calculateSimilarity(right, fN);
+        }
+        return getSimilarity(createNGrams(left), createNGrams(right));
+    }
+
+    @Override
+    public SimilarityHits calculateSimilarities(String query, List<String> candidates, double threshold) {
+        SimilarityHits result = new SimilarityHits();
+        NGramSets sets = null;
+        for (int k = 0; k < candidates.size(); k++) {
+            String candidate = candidates.get(k);
+            double similarity;
+            if (query.equals(candidate)) {
+                similarity = 1.0;
+            } else if (hasProfiles()) {
+                if (sets == null) {
+                    sets = SETS.get();
+                    sets.setQuery(query, fN);
+                }
+                similarity = sets.calculateSimilarity(candidate, fN);
+            } else {
+                similarity = calculateSimilarity(query, candidate);
+            }
+            if (similarity >= threshold) {
+                result.add(k, similarity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the ngrams of this calculator can be packed into profiles, i.e., whether n is at most
+     * {@value #MAX_PACKED_N}.
+     * 
+     * @return <code>true</code> if profiles can be created, <code>false</code> otherwise
+     */
+    public boolean hasProfiles() {
+        return (fN >= 0) && (fN <= MAX_PACKED_N);
+    }
+
+    /**
+     * Returns the ngrams profile of the given string, i.e., its distinct ngrams packed into <code>long</code>s in
+     * ascending order.
+     * 
+     * @param string
+     *            to create the profile for
+     * @return the profile of the string
+     * @see #hasProfiles()
+     */
+    public long[] createProfile(String string) {
+        int count = Math.max(string.length() - (fN - 1), 0);
+        long[] ngrams = new long[count];
+        for (int i = 0; i < count; i++) {
+            ngrams[i] = pack(string, i, fN);
+        }
+        Arrays.sort(ngrams);
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if ((size == 0) || (ngrams[size - 1] != ngrams[i])) {
+                ngrams[size++] = ngrams[i];
+            }
+        }
+        return size == count ? ngrams : Arrays.copyOf(ngrams, size);
+    }
+
+    /**
+     * Returns the similarity between two ngrams profiles. Unlike {@link #calculateSimilarity(String, String)}, equal
+     * strings are not treated specially.
+     * 
+     * @param left
+     *            profile to calculate the similarity with right
+     * @param right
+     *            profile to calculate the similarity with left
+     * @return the similarity between the two profiles
+     * @see #createProfile(String)
+     */
+    public double calculateSimilarity(long[] left, long[] right) {
+        int intersection = 0;
+        for (int i = 0, j = 0; (i < left.length) && (j < right.length);) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                intersection++;
+                i++;
+                j++;
+            }
+        }
+        return intersection * 2.0 / (left.length + right.length);
+    }
+
+    private static long pack(String string, int start, int n) {
+        long result = 0;
+        for (int k = 0; k < n; k++) {
+            result = (result << Character.SIZE) | string.charAt(start + k);
+        }
+        return result;
     }
 
     private double getSimilarity(HashSet<String> left, HashSet<String> right) {
@@ -66,4 +188,102 @@ public class NGramsCalculator implements StringSimilarityCalculator {
         return ngrams;
     }
 
+    /**
+     * Open-addressing set of packed ngrams. Slots are invalidated by bumping a generation instead of clearing the
+     * arrays.
+     */
+    private static final class NGramSet {
+
+        private long[] fKeys = new long[0];
+        private int[] fGenerations = new int[0];
+        private int fGeneration;
+        private int fMask;
+
+        /**
+         * Empties the set and makes room for the given number of ngrams.
+         */
+        void reset(int count) {
+            // keep the load factor at or below one half
+            int capacity = Integer.highestOneBit(Math.max(count, 1)) << 2;
+            if (capacity > fKeys.length) {
+                fKeys = new long[capacity];
+                fGenerations = new int[capacity];
+                fGeneration = 0;
+                fMask = capacity - 1;
+            }
+            fGeneration++;
+            if (fGeneration == 0) {
+                Arrays.fill(fGenerations, 0);
+                fGeneration++;
+            }
+        }
+
+        /**
+         * Adds the ngram and returns whether it was not in the set yet.
+         */
+        boolean add(long ngram) {
+            int slot = slotOf(ngram);
+            if (fGenerations[slot] == fGeneration) {
+                return false;
+            }
+            fKeys[slot] = ngram;
+            fGenerations[slot] = fGeneration;
+            return true;
+        }
+
+        boolean contains(long ngram) {
+            return fGenerations[slotOf(ngram)] == fGeneration;
+        }
+
+        /**
+         * Returns the slot of the given ngram, or the free slot where it is to be inserted.
+         */
+        private int slotOf(long ngram) {
+            long hash = ngram * 0x9E3779B97F4A7C15L;
+            int slot = (int) (hash ^ (hash >>> 32)) & fMask;
+            while ((fGenerations[slot] == fGeneration) && (fKeys[slot] != ngram)) {
+                slot = (slot + 1) & fMask;
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * The ngrams of the query and of the current candidate of a comparison.
+     */
+    private static final class NGramSets {
+
+        private final NGramSet fQuery = new NGramSet();
+        private final NGramSet fCandidate = new NGramSet();
+        private int fQuerySize;
+
+        void setQuery(String query, int n) {
+            int count = Math.max(query.length() - (n - 1), 0);
+            fQuery.reset(count);
+            fQuerySize = 0;
+            for (int i = 0; i < count; i++) {
+                if (fQuery.add(pack(query, i, n))) {
+                    fQuerySize++;
+                }
+            }
+        }
+
+        double calculateSimilarity(String candidate, int n) {
+            int count = Math.max(candidate.length() - (n - 1), 0);
+            fCandidate.reset(count);
+            int size = 0;
+            int intersection = 0;
+            for (int i = 0; i < count; i++) {
+                long ngram = pack(candidate, i, n);
+                if (fCandidate.add(ngram)) {
+                    size++;
+                    if (fQuery.contains(ngram)) {
+                        intersection++;
+                    }
+                }
+            }
+            return intersection * 2.0 / (fQuerySize + size);
+        }
+    }
+
 }
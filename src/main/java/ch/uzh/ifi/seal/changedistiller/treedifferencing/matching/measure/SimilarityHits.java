@@ -0,0 +1,85 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+
+/**
+ * Result of a batch similarity calculation, see
+ * {@link BatchStringSimilarityCalculator#calculateSimilarities(String, java.util.List, double)}: the positions of the
+ * candidates that reach the threshold, in ascending order, together with their similarities.
+ */
+public class SimilarityHits {
+
+    private int[] fCandidates = new int[0];
+    private double[] fSimilarities = new double[0];
+    private int fSize;
+
+    /**
+     * Adds a hit. Hits have to be added in ascending order of the candidate positions.
+     * 
+     * @param candidate
+     *            position of the candidate
+     * @param similarity
+     *            of the candidate to the query
+     */
+    public void add(int candidate, double similarity) {
+        if (fSize == fCandidates.length) {
+            fCandidates = Arrays.copyOf(fCandidates, 2 * fSize + 1);
+            fSimilarities = Arrays.copyOf(fSimilarities, 2 * fSize + 1);
+        }
+        fCandidates[fSize] = candidate;
+        fSimilarities[fSize] = similarity;
+        fSize++;
+    }
+
+    /**
+     * Returns the number of hits.
+     * 
+     * @return the number of hits
+     */
+    public int size() {
+        return fSize;
+    }
+
+    /**
+     * Returns the candidate position of the <code>k</code>th hit.
+     * 
+     * @param k
+     *            the position of the hit
+     * @return the position of the candidate in the batch
+     */
+    public int getCandidate(int k) {
+        return fCandidates[k];
+    }
+
+    /**
+     * Returns the similarity of the <code>k</code>th hit.
+     * 
+     * @param k
+     *            the position of the hit
+     * @return the similarity of the candidate to the query
+     */
+    public double getSimilarity(int k) {
+        return fSimilarities[k];
+    }
+
+}
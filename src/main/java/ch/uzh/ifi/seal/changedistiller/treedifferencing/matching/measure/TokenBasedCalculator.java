@@ -20,16 +20,38 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
  * #L%
  */
 
-import java.util.Hashtable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Implementation of a token based string similarity calculator.
+ * <p>
+ * Comment delimiters are stripped and the strings are split at whitespace by a hand-written scanner over reused
+ * <code>char</code> buffers, and the common tokens are counted as character ranges in an open-addressing table. The
+ * result equals splitting the strings with {@link String#split(String)}, but a comparison neither compiles regular
+ * expressions nor creates the token strings. A batch of comparisons tokenizes the query only once. Other separators
+ * are still applied as regular expressions.
  * 
  * @author Beat Fluri
  * 
  */
-public class TokenBasedCalculator implements StringSimilarityCalculator {
+public class TokenBasedCalculator implements BatchStringSimilarityCalculator {
+
+    private static final String WHITESPACE = "\\s+";
+
+    private static final int NO_COMMENT = 0;
+    private static final int LINE_COMMENT = 1;
+    private static final int BLOCK_COMMENT = 2;
+
+    private static final ThreadLocal<TokenTable> TABLES = new ThreadLocal<TokenTable>() {
+
+        @Override
+        protected TokenTable initialValue() {
+            return new TokenTable();
+        }
+    };
 
     private String fSeparator;
 
@@ -47,84 +69,370 @@ public class TokenBasedCalculator implements StringSimilarityCalculator {
      * Creates a new token base similarity calculator with whitespace as separator.
      */
     public TokenBasedCalculator() {
-        this("\\s+");
-    }
-
-    private String removeRegexOccurrences(String string, String regex) {
-        String[] leftTmp = string.split(regex);
-        StringBuilder cleanedString = new StringBuilder();
-        for (String s : leftTmp) {
-            cleanedString.append(s);
-        }
-        return cleanedString.toString();
+        this(WHITESPACE);
     }
 
     @Override
     public double calculateSimilarity(String left, String right) {
-        String leftString = left;
-        String rightString = right;
-        if (leftString.startsWith("//") || rightString.startsWith("//")) {
-            leftString = removeRegexOccurrences(leftString, "//\\s*");
-            rightString = removeRegexOccurrences(rightString, "//\\s*");
-        } else if (leftString.startsWith("/*") || rightString.startsWith("/*")) {
-            leftString = removeBlockCommentDelimiters(leftString);
-            rightString = removeBlockCommentDelimiters(rightString);
-        }
-        String[] leftTokens = leftString.split(fSeparator);
-        String[] rightTokens = rightString.split(fSeparator);
-        Map<String, Integer> tokens = createTokenHashtable(leftTokens);
-        double match = removeTokensOccuringInRightString(rightTokens, tokens);
+        int comment = getComment(left, right);
+        TokenTable table = TABLES.get();
+        if (WHITESPACE.equals(fSeparator)) {
+            table.setQuery(left, comment);
+            return table.calculateSimilarity(right, comment);
+        }
+        String[] leftTokens = table.removeCommentDelimiters(left, comment).split(fSeparator);
+        String[] rightTokens = table.removeCommentDelimiters(right, comment).split(fSeparator);
+        double match = countCommonTokens(leftTokens, rightTokens);
         double maximumTokens = Math.max(leftTokens.length, rightTokens.length);
         return match / maximumTokens;
     }
 
-    private double removeTokensOccuringInRightString(String[] rightTokens, Map<String, Integer> tokens) {
-        double match = 0.0;
-        // delete the tokens in right from the Hashtable
-        for (int i = 0; i < rightTokens.length; i++) {
-            String token = rightTokens[i];
-            if (tokens.containsKey(token)) {
-                match++;
-                if (tokens.get(token) > 1) {
-                    Integer nrTokensForString = tokens.remove(token);
-                    tokens.put(token, nrTokensForString - 1);
-                } else {
-                    tokens.remove(token);
+    @Override
+    public SimilarityHits calculateSimilarities(String query, List<String> candidates, double threshold) {
+        SimilarityHits result = new SimilarityHits();
+        TokenTable table = TABLES.get();
+        int prepared = -1;
+        for (int k = 0; k < candidates.size(); k++) {
+            String candidate = candidates.get(k);
+            double similarity;
+            if (WHITESPACE.equals(fSeparator)) {
+                // the delimiters stripped from the query depend on the candidate
+                int comment = getComment(query, candidate);
+                if (comment != prepared) {
+                    table.setQuery(query, comment);
+                    prepared = comment;
                 }
-                rightTokens[i] = "";
+                similarity = table.calculateSimilarity(candidate, comment);
+            } else {
+                similarity = calculateSimilarity(query, candidate);
+            }
+            if (similarity >= threshold) {
+                result.add(k, similarity);
             }
         }
-        return match;
+        return result;
     }
 
-    private Map<String, Integer> createTokenHashtable(String[] leftTokens) {
-        Map<String, Integer> tokens = new Hashtable<String, Integer>();
+    private static int getComment(String left, String right) {
+        if (left.startsWith("//") || right.startsWith("//")) {
+            return LINE_COMMENT;
+        } else if (left.startsWith("/*") || right.startsWith("/*")) {
+            return BLOCK_COMMENT;
+        }
+        return NO_COMMENT;
+    }
 
-        // fill the Hashtable with the tokens from left
+    private int countCommonTokens(String[] leftTokens, String[] rightTokens) {
+        Map<String, Integer> tokens = new HashMap<String, Integer>();
         for (String token : leftTokens) {
-            if (tokens.containsKey(token)) {
-                Integer nrTokensForString = tokens.remove(token);
-                tokens.put(token, nrTokensForString + 1);
-            } else {
-                tokens.put(token, 1);
+            Integer count = tokens.get(token);
+            tokens.put(token, count == null ? 1 : count + 1);
+        }
+        int match = 0;
+        for (String token : rightTokens) {
+            Integer count = tokens.get(token);
+            if ((count != null) && (count > 0)) {
+                tokens.put(token, count - 1);
+                match++;
             }
         }
-        return tokens;
+        return match;
     }
 
-    private String removeBlockCommentDelimiters(String leftString) {
-        String result = removeRegexOccurrences(leftString, "/\\*+\\s*");
-        return removeBlockCommentEnd(result);
+    /**
+     * Returns whether the character is matched by <code>\s</code> in a regular expression.
+     */
+    private static boolean isWhitespace(char c) {
+        return (c == ' ') || (c == '\t') || (c == '\n') || (c == '\u000B') || (c == '\f') || (c == '\r');
     }
 
-    private String removeBlockCommentEnd(String leftString) {
-        String result = leftString;
-        try {
-            result = leftString.split("\\s*\\*/")[0];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            result = leftString.replace('/', ' ');
+    /**
+     * Text of one side of a comparison, i.e., the string without comment delimiters, and its whitespace separated
+     * tokens as ranges of the text.
+     */
+    private static final class TokenSequence {
+
+        private char[] fText = new char[0];
+        private int fFrom;
+        private int fTo;
+        private int[] fStarts = new int[0];
+        private int[] fEnds = new int[0];
+        private int fCount;
+
+        void setText(String string, int comment) {
+            if (fText.length < string.length()) {
+                fText = new char[string.length()];
+            }
+            if (comment == LINE_COMMENT) {
+                removeLineCommentDelimiters(string);
+            } else if (comment == BLOCK_COMMENT) {
+                removeBlockCommentDelimiters(string);
+            } else {
+                string.getChars(0, string.length(), fText, 0);
+                fFrom = 0;
+                fTo = string.length();
+            }
+        }
+
+        String getText() {
+            return new String(fText, fFrom, fTo - fFrom);
+        }
+
+        /**
+         * Removes the occurrences of <code>//\s*</code>.
+         */
+        private void removeLineCommentDelimiters(String string) {
+            int length = 0;
+            for (int i = 0; i < string.length();) {
+                if (string.startsWith("//", i)) {
+                    i = skipWhitespace(string, i + 2);
+                } else {
+                    fText[length++] = string.charAt(i++);
+                }
+            }
+            fFrom = 0;
+            fTo = length;
+        }
+
+        /**
+         * Removes the occurrences of <code>/\*+\s*</code>, cuts the text at the first <code>\s*\*&#47;</code> as
+         * <code>split("\\s*\\*&#47;")[0]</code> does, and replaces the remaining stars with blanks.
+         */
+        private void removeBlockCommentDelimiters(String string) {
+            int length = 0;
+            for (int i = 0; i < string.length();) {
+                if (string.startsWith("/*", i)) {
+                    i += 2;
+                    while ((i < string.length()) && (string.charAt(i) == '*')) {
+                        i++;
+                    }
+                    i = skipWhitespace(string, i);
+                } else {
+                    fText[length++] = string.charAt(i++);
+                }
+            }
+            int end = indexOfCommentEnd(length);
+            if ((end == 0) && consistsOfCommentEnds(length)) {
+                // split(..) yields no substring at all
+                for (int i = 0; i < length; i++) {
+                    if (fText[i] == '/') {
+                        fText[i] = ' ';
+                    }
+                }
+            } else if (end >= 0) {
+                length = end;
+            }
+            for (int i = 0; i < length; i++) {
+                if (fText[i] == '*') {
+                    fText[i] = ' ';
+                }
+            }
+            // trimmed as String.trim() does
+            fFrom = 0;
+            fTo = length;
+            while ((fFrom < fTo) && (fText[fFrom] <= ' ')) {
+                fFrom++;
+            }
+            while ((fFrom < fTo) && (fText[fTo - 1] <= ' ')) {
+                fTo--;
+            }
+        }
+
+        private static int skipWhitespace(String string, int from) {
+            int result = from;
+            while ((result < string.length()) && isWhitespace(string.charAt(result))) {
+                result++;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the start of the first <code>\s*\*&#47;</code> in the text, <code>-1</code> if there is none.
+         */
+        private int indexOfCommentEnd(int length) {
+            for (int i = 0; i + 1 < length; i++) {
+                if ((fText[i] == '*') && (fText[i + 1] == '/')) {
+                    int result = i;
+                    while ((result > 0) && isWhitespace(fText[result - 1])) {
+                        result--;
+                    }
+                    return result;
+                }
+            }
+            return -1;
+        }
+
+        private boolean consistsOfCommentEnds(int length) {
+            int i = 0;
+            while (i < length) {
+                while ((i < length) && isWhitespace(fText[i])) {
+                    i++;
+                }
+                if ((i + 1 < length) && (fText[i] == '*') && (fText[i + 1] == '/')) {
+                    i += 2;
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Splits the text as <code>split("\\s+")</code> does, in any order: an empty text is a single empty token, a
+         * leading separator yields an empty token, and a text of separators only has no tokens.
+         */
+        void tokenize() {
+            fCount = 0;
+            if (fFrom == fTo) {
+                addToken(fFrom, fTo);
+                return;
+            }
+            for (int i = fFrom; i < fTo;) {
+                while ((i < fTo) && isWhitespace(fText[i])) {
+                    i++;
+                }
+                int start = i;
+                while ((i < fTo) && !isWhitespace(fText[i])) {
+                    i++;
+                }
+                if (start < i) {
+                    addToken(start, i);
+                }
+            }
+            if ((fCount > 0) && isWhitespace(fText[fFrom])) {
+                addToken(fFrom, fFrom);
+            }
+        }
+
+        private void addToken(int start, int end) {
+            if (fCount == fStarts.length) {
+                fStarts = Arrays.copyOf(fStarts, 2 * fCount + 1);
+                fEnds = Arrays.copyOf(fEnds, 2 * fCount + 1);
+            }
+            fStarts[fCount] = start;
+            fEnds[fCount] = end;
+            fCount++;
+        }
+
+        int hashOf(int token) {
+            int result = 0;
+            for (int i = fStarts[token]; i < fEnds[token]; i++) {
+                result = 31 * result + fText[i];
+            }
+            return result;
+        }
+
+        boolean isEqual(int token, TokenSequence other, int otherToken) {
+            int length = fEnds[token] - fStarts[token];
+            if (length != other.fEnds[otherToken] - other.fStarts[otherToken]) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (fText[fStarts[token] + i] != other.fText[other.fStarts[otherToken] + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Multiset of the query tokens in an open-addressing table, from which the tokens of a candidate are taken. Slots
+     * are invalidated by bumping a generation instead of clearing the arrays, and the tokens taken by a candidate are
+     * reset by bumping the round.
+     */
+    private static final class TokenTable {
+
+        private final TokenSequence fQuery = new TokenSequence();
+        private final TokenSequence fCandidate = new TokenSequence();
+
+        private int[] fTokens = new int[0];
+        private int[] fCounts = new int[0];
+        private int[] fGenerations = new int[0];
+        private int[] fTaken = new int[0];
+        private int[] fRounds = new int[0];
+        private int fGeneration;
+        private int fRound;
+        private int fMask;
+
+        String removeCommentDelimiters(String string, int comment) {
+            fCandidate.setText(string, comment);
+            return fCandidate.getText();
+        }
+
+        void setQuery(String query, int comment) {
+            fQuery.setText(query, comment);
+            fQuery.tokenize();
+            reset(fQuery.fCount);
+            for (int token = 0; token < fQuery.fCount; token++) {
+                int slot = slotOf(fQuery, token);
+                if (fGenerations[slot] == fGeneration) {
+                    fCounts[slot]++;
+                } else {
+                    fTokens[slot] = token;
+                    fCounts[slot] = 1;
+                    fGenerations[slot] = fGeneration;
+                    fRounds[slot] = 0;
+                }
+            }
+        }
+
+        double calculateSimilarity(String candidate, int comment) {
+            fCandidate.setText(candidate, comment);
+            fCandidate.tokenize();
+            fRound++;
+            if (fRound == 0) {
+                Arrays.fill(fRounds, 0);
+                fRound++;
+            }
+            double match = 0.0;
+            for (int token = 0; token < fCandidate.fCount; token++) {
+                int slot = slotOf(fCandidate, token);
+                if (fGenerations[slot] == fGeneration) {
+                    if (fRounds[slot] != fRound) {
+                        fRounds[slot] = fRound;
+                        fTaken[slot] = 0;
+                    }
+                    if (fTaken[slot] < fCounts[slot]) {
+                        fTaken[slot]++;
+                        match++;
+                    }
+                }
+            }
+            double maximumTokens = Math.max(fQuery.fCount, fCandidate.fCount);
+            return match / maximumTokens;
+        }
+
+        private void reset(int count) {
+            // keep the load factor at or below one half
+            int capacity = Integer.highestOneBit(Math.max(count, 1)) << 2;
+            if (capacity > fTokens.length) {
+                fTokens = new int[capacity];
+                fCounts = new int[capacity];
+                fGenerations = new int[capacity];
+                fTaken = new int[capacity];
+                fRounds = new int[capacity];
+                fGeneration = 0;
+                fMask = capacity - 1;
+            }
+            fGeneration++;
+            if (fGeneration == 0) {
+                Arrays.fill(fGenerations, 0);
+                fGeneration++;
+            }
+        }
+
+        /**
+         * Returns the slot of the given token, or the free slot where it is to be inserted.
+         */
+        private int slotOf(TokenSequence sequence, int token) {
+            int hash = sequence.hashOf(token) * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & fMask;
+            while ((fGenerations[slot] == fGeneration) && !fQuery.isEqual(fTokens[slot], sequence, token)) {
+                slot = (slot + 1) & fMask;
+            }
+            return slot;
         }
-        return result.replace('*', ' ').trim();
     }
 
 }
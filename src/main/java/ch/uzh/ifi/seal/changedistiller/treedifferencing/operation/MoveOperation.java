@@ -53,9 +53,28 @@ public class MoveOperation implements TreeEditOperation {
      *            the position of the node to move
      */
     public MoveOperation(Node nodeToMove, Node newNode, Node parent, int position) {
+        this(nodeToMove, newNode, (Node) nodeToMove.getParent(), parent, position);
+    }
+
+    /**
+     * Creates a new move operation of a node whose parent is given explicitly, e.g., because the move is not applied
+     * to the tree of the node.
+     * 
+     * @param nodeToMove
+     *            the node to move
+     * @param newNode
+     *            the node the moved node becomes
+     * @param oldParent
+     *            the parent node of which the node is a child before move
+     * @param parent
+     *            the parent node in which the node becomes a child after move
+     * @param position
+     *            the position of the node to move
+     */
+    public MoveOperation(Node nodeToMove, Node newNode, Node oldParent, Node parent, int position) {
         fNodeToMove = nodeToMove;
         fNewNode = newNode;
-        fOldParent = (Node) nodeToMove.getParent();
+        fOldParent = oldParent;
         fNewParent = parent;
         fPosition = position;
     }
@@ -0,0 +1,186 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.MatchingFactory;
+
+/**
+ * Measures how the edit script generation of {@link TreeDifferencer} scales with the size of the method body.
+ * <p>
+ * The right tree is derived from the left one by updating, moving, deleting, and inserting a few percent of the
+ * statements, which resembles a typical commit on a large method. The whole differencing is measured as well as the
+ * edit script generation alone, on a matching computed once per trial. Run with {@link #main(String[])} from the
+ * test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EditScriptBenchmark {
+
+    @Param({"100", "250", "500", "1000", "2000"})
+    private int fStatements;
+
+    private Node fLeftTemplate;
+    private Node fRightTemplate;
+
+    private Set<NodePair> fTemplateMatching;
+
+    private Node fLeft;
+    private Node fRight;
+    private Set<NodePair> fMatching;
+
+    @Setup(Level.Trial)
+    public void createTemplates() {
+        Random random = new Random(42);
+        fLeftTemplate = createMethod(random, fStatements);
+        fRightTemplate = change(random, copy(fLeftTemplate));
+        fTemplateMatching = new HashSet<NodePair>();
+        MatchingFactory.getMatcher(fTemplateMatching).match(fLeftTemplate, fRightTemplate);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyTemplates() {
+        // edit script generation modifies the trees, so every invocation needs fresh ones
+        Map<Node, Node> copies = new IdentityHashMap<Node, Node>();
+        fLeft = copy(fLeftTemplate, copies);
+        fRight = copy(fRightTemplate, copies);
+        fMatching = new HashSet<NodePair>();
+        for (NodePair pair : fTemplateMatching) {
+            fMatching.add(new NodePair(copies.get(pair.getLeft()), copies.get(pair.getRight())));
+        }
+    }
+
+    @Benchmark
+    public List<TreeEditOperation> calculateEditScript() {
+        TreeDifferencer differencer = new TreeDifferencer();
+        differencer.calculateEditScript(fLeft, fRight);
+        return differencer.getEditScript();
+    }
+
+    @Benchmark
+    public List<TreeEditOperation> calculateEditScriptFromMatching() {
+        TreeDifferencer differencer = new TreeDifferencer();
+        differencer.calculateEditScript(fLeft, fRight, fMatching);
+        return differencer.getEditScript();
+    }
+
+    private static Node createMethod(Random random, int statements) {
+        Node root = new Node(JavaEntityType.METHOD, "method()");
+        Node block = root;
+        for (int i = 0; i < statements; i++) {
+            if ((block == root) && (random.nextInt(10) == 0)) {
+                block = new Node(JavaEntityType.IF_STATEMENT, "i < " + i);
+                root.add(block);
+            } else if ((block != root) && (random.nextInt(8) == 0)) {
+                block = root;
+            }
+            block.add(createStatement(random, i));
+        }
+        return root;
+    }
+
+    private static Node createStatement(Random random, int i) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return new Node(JavaEntityType.METHOD_INVOCATION, "foo" + (i % 17) + ".bar(" + i + ");");
+            case 1:
+                return new Node(JavaEntityType.ASSIGNMENT, "a" + i + " = b" + (i % 13) + " + 1;");
+            default:
+                return new Node(JavaEntityType.VARIABLE_DECLARATION_STATEMENT, "int x" + i + " = y.get();");
+        }
+    }
+
+    private static Node change(Random random, Node root) {
+        List<Node> statements = new ArrayList<Node>();
+        List<Node> blocks = new ArrayList<Node>();
+        for (Enumeration<?> e = root.preorderEnumeration(); e.hasMoreElements();) {
+            Node node = (Node) e.nextElement();
+            if (node.isLeaf()) {
+                statements.add(node);
+            } else if (!node.isRoot()) {
+                blocks.add(node);
+            }
+        }
+        for (Node statement : statements) {
+            int edit = random.nextInt(100);
+            if (edit < 5) {
+                statement.setValue(statement.getValue().replace(';', ' ') + "// changed;");
+            } else if ((edit < 7) && !blocks.isEmpty()) {
+                Node target = blocks.get(random.nextInt(blocks.size()));
+                statement.removeFromParent();
+                target.insert(statement, random.nextInt(target.getChildCount() + 1));
+            } else if ((edit < 9) && (statement.getParent().getChildCount() > 1)) {
+                statement.removeFromParent();
+            } else if (edit < 11) {
+                Node parent = (Node) statement.getParent();
+                parent.insert(createStatement(random, random.nextInt(100000)), parent.getIndex(statement));
+            }
+        }
+        return root;
+    }
+
+    private static Node copy(Node node) {
+        return copy(node, new IdentityHashMap<Node, Node>());
+    }
+
+    private static Node copy(Node node, Map<Node, Node> copies) {
+        Node copy = new Node(node.getLabel(), node.getValue());
+        copies.put(node, copy);
+        for (int i = 0; i < node.getChildCount(); i++) {
+            copy.add(copy((Node) node.getChildAt(i), copies));
+        }
+        return copy;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(EditScriptBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
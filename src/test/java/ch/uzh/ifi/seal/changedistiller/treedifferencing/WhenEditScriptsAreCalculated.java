@@ -32,6 +32,7 @@ import org.junit.Test;
 
 import ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.Node;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.SymbolTable;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.TreeDifferencer;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.TreeEditOperation;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.TreeEditOperation.OperationType;
@@ -107,6 +108,53 @@ public class WhenEditScriptsAreCalculated extends TreeDifferencingTestCase {
         assertThat(move.getNewNode().getValue(), is(methodInvocation.getValue()));
     }
 
+    @Test
+    public void reorderedNodesShouldBeMovedToTheirNewPositions() throws Exception {
+        String[] statements = {"foo.bar();", "a = b;", "list.clear();", "x = y + z;", "System.exit(0);", "i++;"};
+        for (String statement : statements) {
+            addToLeft(METHOD_INVOCATION, statement);
+        }
+        int[] order = {4, 0, 1, 5, 2, 3};
+        for (int i : order) {
+            addToRight(METHOD_INVOCATION, statements[i]);
+        }
+        createEditScript();
+        assertThat(fEditScript.size(), is(2));
+        for (TreeEditOperation operation : fEditScript) {
+            assertThat(operation.getOperationType(), is(OperationType.MOVE));
+        }
+        for (int i = 0; i < order.length; i++) {
+            assertThat(((Node) fRootLeft.getChildAt(i)).getValue(), is(statements[order[i]]));
+        }
+    }
+
+    @Test
+    public void disabledTreeModificationShouldLeaveTreesUntouched() throws Exception {
+        Node methodInvocation = addToLeft(METHOD_INVOCATION, "foo.bar();");
+        Node ifStatementLeft = addToLeft(JavaEntityType.IF_STATEMENT, "foo != null");
+        addToNode(ifStatementLeft, ASSIGNMENT, "b = a;");
+        Node ifStatementRight = addToRight(JavaEntityType.IF_STATEMENT, "foo != null");
+        addToNode(ifStatementRight, METHOD_INVOCATION, "foo.bar();");
+        addToNode(ifStatementRight, ASSIGNMENT, "b = a;");
+        addToRight(METHOD_INVOCATION, "list.clear();");
+        fDifferencer.disableTreeModification();
+        for (int i = 0; i < 2; i++) {
+            createEditScript();
+            assertThat(fEditScript.size(), is(2));
+            InsertOperation insert = (InsertOperation) fEditScript.get(0);
+            assertThat(insert.getParentNode(), is(fRootLeft));
+            assertThat(insert.getNodeToInsert().getValue(), is("list.clear();"));
+            MoveOperation move = (MoveOperation) fEditScript.get(1);
+            assertThat(move.getNodeToMove(), is(methodInvocation));
+            assertThat(move.getOldParent(), is(fRootLeft));
+            assertThat(move.getNewParent(), is(ifStatementLeft));
+            assertThat(fRootLeft.getChildCount(), is(2));
+            assertThat(methodInvocation.getParent(), is((Object) fRootLeft));
+            assertThat(ifStatementLeft.getChildCount(), is(1));
+            assertThat(ifStatementRight.getChildCount(), is(2));
+        }
+    }
+
     @Test
     public void changedNodeShouldProduceUpdateOperation() throws Exception {
         Node methodInvocationLeft = addToLeft(METHOD_INVOCATION, "foo.bar();");
@@ -121,6 +169,35 @@ public class WhenEditScriptsAreCalculated extends TreeDifferencingTestCase {
         assertThat(update.getOldValue(), is("foo.bar();"));
 
     }
+
+    @Test
+    public void sequenceAnchoredMatchingShouldOnlyInsertTheDuplicatedLeaf() throws Exception {
+        addToLeft(ASSIGNMENT, "a = b;");
+        addToLeft(ASSIGNMENT, "x = 1;");
+        addToRight(ASSIGNMENT, "x = 1;");
+        addToRight(ASSIGNMENT, "a = b;");
+        addToRight(ASSIGNMENT, "x = 1;");
+        fDifferencer.enableSequenceAnchoredMatching();
+        createEditScript();
+        assertThat(fEditScript.size(), is(1));
+        assertThat(fEditScript.get(0).getOperationType(), is(OperationType.INSERT));
+    }
+
+    @Test
+    public void sharedSymbolTableShouldInternValuesAcrossRuns() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        fDifferencer.setSymbolTable(symbols);
+        Node methodInvocationLeft = addToLeft(METHOD_INVOCATION, "foo.bar();");
+        Node methodInvocationRight = addToRight(METHOD_INVOCATION, "foo.beer();");
+        createEditScript();
+        assertThat(fEditScript.size(), is(1));
+        assertThat(fEditScript.get(0).getOperationType(), is(OperationType.UPDATE));
+        int size = symbols.size();
+        methodInvocationLeft.setValue("foo.beer();");
+        createEditScript();
+        assertThat(fEditScript.isEmpty(), is(true));
+        assertThat(symbols.size(), is(size));
+    }
     
     
     @Test
@@ -0,0 +1,90 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.ASSIGNMENT;
+import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.IF_STATEMENT;
+import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.LINE_COMMENT;
+import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.METHOD_INVOCATION;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Test;
+
+public class WhenSubtreeStatisticsAreCalculated extends TreeDifferencingTestCase {
+
+    @Test
+    public void statisticsShouldDescribeSubtree() throws Exception {
+        Node ifStatement = createTree(fRootLeft);
+        assertThat(fRootLeft.getLeafCount(), is(4));
+        assertThat(fRootLeft.getCommentCount(), is(1));
+        assertThat(fRootLeft.getSubtreeSize(), is(6));
+        assertThat(fRootLeft.getDepth(), is(2));
+        assertThat(ifStatement.getLeafCount(), is(2));
+        assertThat(ifStatement.getCommentCount(), is(1));
+        assertThat(ifStatement.getSubtreeSize(), is(3));
+        assertThat(ifStatement.getDepth(), is(1));
+    }
+
+    @Test
+    public void statisticsShouldFollowChangesOfSubtree() throws Exception {
+        Node ifStatement = createTree(fRootLeft);
+        assertThat(fRootLeft.getLeafCount(), is(4));
+        Node assignment = addToNode(ifStatement, ASSIGNMENT, "b = c;");
+        assertThat(fRootLeft.getLeafCount(), is(5));
+        assertThat(fRootLeft.getSubtreeSize(), is(7));
+        addToNode(assignment, METHOD_INVOCATION, "c.foo();");
+        assertThat(fRootLeft.getDepth(), is(3));
+        ifStatement.removeFromParent();
+        assertThat(fRootLeft.getLeafCount(), is(2));
+        assertThat(fRootLeft.getCommentCount(), is(0));
+        assertThat(fRootLeft.getDepth(), is(1));
+    }
+
+    @Test
+    public void equalSubtreesShouldHaveEqualStructureHash() throws Exception {
+        createTree(fRootLeft);
+        Node ifStatement = createTree(fRootRight);
+        assertThat(fRootLeft.getStructureHash(), is(fRootRight.getStructureHash()));
+        ((Node) ifStatement.getFirstChild()).setValue("a = c;");
+        assertThat(fRootLeft.getStructureHash(), is(not(fRootRight.getStructureHash())));
+    }
+
+    @Test
+    public void cloneShouldNotShareStatisticsOfSubtree() throws Exception {
+        Node ifStatement = createTree(fRootLeft);
+        assertThat(ifStatement.getLeafCount(), is(2));
+        Node clone = (Node) ifStatement.clone();
+        assertThat(clone.getLeafCount(), is(1));
+        assertThat(clone.getSubtreeSize(), is(1));
+    }
+
+    private Node createTree(Node root) {
+        Node ifStatement = addToNode(root, IF_STATEMENT, "foo != null");
+        addToNode(ifStatement, ASSIGNMENT, "a = b;");
+        addToNode(ifStatement, LINE_COMMENT, "// comment");
+        addToNode(root, METHOD_INVOCATION, "foo.bar();");
+        addToNode(root, METHOD_INVOCATION, "bar.foo();");
+        return ifStatement;
+    }
+
+}
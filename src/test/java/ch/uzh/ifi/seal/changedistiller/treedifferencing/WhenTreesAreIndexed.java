@@ -0,0 +1,133 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.ASSIGNMENT;
+import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.IF_STATEMENT;
+import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.METHOD_INVOCATION;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Enumeration;
+
+import org.junit.Test;
+
+public class WhenTreesAreIndexed extends TreeDifferencingTestCase {
+
+    @Test
+    public void nodesShouldBeNumberedInPostOrder() throws Exception {
+        createTree(fRootLeft);
+        IndexedTree tree = new IndexedTree(fRootLeft);
+        int i = 0;
+        for (Enumeration<?> e = fRootLeft.postorderEnumeration(); e.hasMoreElements(); i++) {
+            Node node = (Node) e.nextElement();
+            assertThat(tree.getNode(i), is(node));
+            assertThat(tree.indexOf(node), is(i));
+        }
+        assertThat(tree.size(), is(i));
+        assertThat(tree.indexOf(fRootRight), is(-1));
+    }
+
+    @Test
+    public void structureShouldMatchTree() throws Exception {
+        createTree(fRootLeft);
+        IndexedTree tree = new IndexedTree(fRootLeft);
+        int leaves = 0;
+        for (int i = 0; i < tree.size(); i++) {
+            Node node = tree.getNode(i);
+            assertThat(tree.isRoot(i), is(node.isRoot()));
+            assertThat(tree.isLeaf(i), is(node.isLeaf()));
+            if (node.isLeaf()) {
+                assertThat(tree.getLeaf(leaves++), is(i));
+            }
+            int parent = tree.getParent(i);
+            assertThat(parent == -1 ? null : tree.getNode(parent), is(node.getParent()));
+            int child = tree.getFirstChild(i);
+            for (int c = 0; c < node.getChildCount(); c++) {
+                assertThat(tree.getNode(child), is(node.getChildAt(c)));
+                child = tree.getNextSibling(child);
+            }
+            assertThat(child, is(-1));
+        }
+        assertThat(tree.getLeafCount(), is(leaves));
+    }
+
+    @Test
+    public void preOrderRanksShouldFollowPreOrderTraversal() throws Exception {
+        createTree(fRootLeft);
+        IndexedTree tree = new IndexedTree(fRootLeft);
+        int rank = 0;
+        for (Enumeration<?> e = fRootLeft.preorderEnumeration(); e.hasMoreElements();) {
+            assertThat(tree.getPreOrder(tree.indexOf((Node) e.nextElement())), is(rank++));
+        }
+    }
+
+    @Test
+    public void descendantsShouldBeDetectedByIntervals() throws Exception {
+        createTree(fRootLeft);
+        IndexedTree tree = new IndexedTree(fRootLeft);
+        for (int i = 0; i < tree.size(); i++) {
+            for (int j = 0; j < tree.size(); j++) {
+                assertThat(tree.isDescendant(i, j), is(tree.getNode(i).isNodeDescendant(tree.getNode(j))));
+            }
+        }
+    }
+
+    @Test
+    public void equalLabelsAndValuesShouldShareIds() throws Exception {
+        Node left = addToLeft(METHOD_INVOCATION, "foo.bar();");
+        Node right = addToRight(METHOD_INVOCATION, "foo.bar();");
+        Node other = addToRight(ASSIGNMENT, "a = b;");
+        SymbolTable symbols = new SymbolTable();
+        IndexedTree leftTree = new IndexedTree(fRootLeft, symbols);
+        IndexedTree rightTree = new IndexedTree(fRootRight, symbols);
+        int l = leftTree.indexOf(left);
+        int r = rightTree.indexOf(right);
+        int o = rightTree.indexOf(other);
+        assertThat(leftTree.getLabel(l), is(rightTree.getLabel(r)));
+        assertThat(leftTree.getValue(l), is(rightTree.getValue(r)));
+        assertThat(leftTree.getLabel(l), is(not(rightTree.getLabel(o))));
+        assertThat(leftTree.getValue(l), is(not(rightTree.getValue(o))));
+    }
+
+    @Test
+    public void valueIdsShouldFollowValueChanges() throws Exception {
+        Node left = addToLeft(METHOD_INVOCATION, "foo.bar();");
+        addToRight(METHOD_INVOCATION, "foo.beer();");
+        SymbolTable symbols = new SymbolTable();
+        int rightValue = new IndexedTree(fRootRight, symbols).getValue(0);
+        assertThat(new IndexedTree(fRootLeft, symbols).getValue(0), is(not(rightValue)));
+        left.setValue("foo.beer();");
+        assertThat(new IndexedTree(fRootLeft, symbols).getValue(0), is(rightValue));
+    }
+
+    private void createTree(Node root) {
+        Node ifStatement = addToNode(root, IF_STATEMENT, "foo != null");
+        addToNode(ifStatement, METHOD_INVOCATION, "foo.bar();");
+        Node innerIf = addToNode(ifStatement, IF_STATEMENT, "bar != null");
+        addToNode(innerIf, ASSIGNMENT, "a = b;");
+        addToNode(innerIf, ASSIGNMENT, "b = c;");
+        addToNode(root, METHOD_INVOCATION, "bar.foo();");
+        addToNode(root, IF_STATEMENT, "x");
+    }
+
+}
@@ -0,0 +1,69 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Test;
+
+public class WhenLeafCandidatesAreCollected {
+
+    @Test
+    public void candidatesShouldBeSortedByDescendingSimilarity() throws Exception {
+        LeafCandidates candidates = new LeafCandidates();
+        double[] similarities = {0.6, 0.9, 0.7, 1.0, 0.8};
+        for (int k = 0; k < similarities.length; k++) {
+            candidates.add(k, k, similarities[k]);
+        }
+        assertThat(candidates.sortBySimilarity(), is(new int[] {3, 1, 4, 2, 0}));
+    }
+
+    @Test
+    public void equallySimilarCandidatesShouldKeepTheirOrder() throws Exception {
+        LeafCandidates candidates = new LeafCandidates();
+        for (int k = 0; k < 100; k++) {
+            candidates.add(k, k, (k % 2) == 0 ? 0.7 : 0.9);
+        }
+        int[] order = candidates.sortBySimilarity();
+        for (int k = 0; k < 50; k++) {
+            assertThat(order[k], is((2 * k) + 1));
+            assertThat(order[50 + k], is(2 * k));
+        }
+    }
+
+    @Test
+    public void limitShouldKeepTheMostSimilarCandidatesInTheirOrder() throws Exception {
+        LeafCandidates candidates = new LeafCandidates();
+        candidates.add(0, 0, 0.9);
+        double[] similarities = {0.6, 0.9, 0.7, 0.9, 0.8};
+        for (int k = 0; k < similarities.length; k++) {
+            candidates.add(1, k, similarities[k]);
+        }
+        candidates.limit(1, 3);
+        assertThat(candidates.size(), is(4));
+        assertThat(candidates.getRight(0), is(0));
+        assertThat(candidates.getRight(1), is(1));
+        assertThat(candidates.getRight(2), is(3));
+        assertThat(candidates.getRight(3), is(4));
+    }
+
+}
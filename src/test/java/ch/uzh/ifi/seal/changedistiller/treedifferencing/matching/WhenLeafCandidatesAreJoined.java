@@ -0,0 +1,95 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NGramsCalculator;
+
+public class WhenLeafCandidatesAreJoined {
+
+    private static final String[] VALUES = {
+            "foo.bar();",
+            "foo.baz();",
+            "bar.foo();",
+            "aInt = 24;",
+            "aInt = 42;",
+            "int aInt = 24;",
+            "return aInt;",
+            "return;",
+            "x;"};
+
+    @Test
+    public void pairsReachingTheThresholdShouldBeCandidates() throws Exception {
+        NGramsCalculator calculator = new NGramsCalculator(2);
+        List<long[]> profiles = new ArrayList<long[]>();
+        for (String value : VALUES) {
+            profiles.add(calculator.createProfile(value));
+        }
+        int[] labels = new int[VALUES.length];
+        for (double threshold : new double[] {0.1, 0.4, 0.6, 0.8, 1.0}) {
+            LeafJoin join = new LeafJoin(threshold, profiles, profiles, labels);
+            for (int i = 0; i < VALUES.length; i++) {
+                List<Integer> candidates = asList(join.getCandidates(profiles.get(i), 0));
+                for (int j = 0; j < VALUES.length; j++) {
+                    if (calculator.calculateSimilarity(profiles.get(i), profiles.get(j)) >= threshold) {
+                        assertThat(candidates.contains(j), is(true));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void profilesWithDifferentLabelsShouldNotBeCandidates() throws Exception {
+        NGramsCalculator calculator = new NGramsCalculator(2);
+        List<long[]> profiles = Arrays.asList(calculator.createProfile("foo.bar();"));
+        LeafJoin join = new LeafJoin(0.6, profiles, profiles, new int[] {1});
+        assertThat(join.getCandidates(profiles.get(0), 0).length, is(0));
+        assertThat(join.getCandidates(profiles.get(0), 1).length, is(1));
+    }
+
+    @Test
+    public void dissimilarProfilesShouldBeFilteredOut() throws Exception {
+        NGramsCalculator calculator = new NGramsCalculator(2);
+        List<long[]> left = Arrays.asList(calculator.createProfile("foo.bar();"));
+        List<long[]> right =
+                Arrays.asList(calculator.createProfile("foo.bar();"), calculator.createProfile("return aInt;"));
+        LeafJoin join = new LeafJoin(0.6, left, right, new int[2]);
+        assertThat(asList(join.getCandidates(left.get(0), 0)), is(Arrays.asList(0)));
+    }
+
+    private static List<Integer> asList(int[] values) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int value : values) {
+            result.add(value);
+        }
+        return result;
+    }
+
+}
@@ -34,6 +34,10 @@ import org.junit.Test;
 import ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.LeafPair;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.Node;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.ChawatheCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NGramsCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NodeSimilarityCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.StringSimilarityCalculator;
 
 public class WhenLeavesAreMatched extends WhenTreeNodesAreMatched {
 
@@ -90,6 +94,28 @@ public class WhenLeavesAreMatched extends WhenTreeNodesAreMatched {
         assertLeavesAreMatched(methodInvocationLeft, methodInvocationRight);
     }
 
+    @Test
+    public void changedButSimilarLeavesShouldMatchWithPairwiseCalculator() throws Exception {
+        Node methodInvocationLeft = addToLeft(METHOD_INVOCATION, "foo.bar();");
+        addToLeft(ASSIGNMENT, "a = b;");
+        addToRight(RETURN_STATEMENT, "return b;");
+        Node methodInvocationRight = addToRight(METHOD_INVOCATION, "foo.bear();");
+        StringSimilarityCalculator pairwiseCalculator = new StringSimilarityCalculator() {
+
+            private final NGramsCalculator fCalculator = new NGramsCalculator(3);
+
+            @Override
+            public double calculateSimilarity(String left, String right) {
+                return fCalculator.calculateSimilarity(left, right);
+            }
+        };
+        NodeSimilarityCalculator nodeCalculator = new ChawatheCalculator();
+        nodeCalculator.setLeafMatchSet(fMatchSet);
+        fMatcher.init(pairwiseCalculator, 0.6, nodeCalculator, 0.6);
+        createMatchSet();
+        assertLeavesAreMatched(methodInvocationLeft, methodInvocationRight);
+    }
+
     private void assertLeavesAreMatched(Node left, Node right) {
         assertThat(fMatchSet, hasItem(new LeafPair(left, right)));
     }
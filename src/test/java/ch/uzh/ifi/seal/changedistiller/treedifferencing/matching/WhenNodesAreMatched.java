@@ -24,17 +24,35 @@ import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityT
 import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.CONSTRUCTOR_INVOCATION;
 import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.FOREACH_STATEMENT;
 import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.FOR_STATEMENT;
+import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.IF_STATEMENT;
 import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.METHOD_INVOCATION;
 import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.VARIABLE_DECLARATION_STATEMENT;
 import static ch.uzh.ifi.seal.changedistiller.model.classifiers.java.JavaEntityType.WHILE_STATEMENT;
 import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.LeafPair;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.Node;
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.NodePair;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.SymbolTable;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.TreeMatcher;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.ChawatheCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NGramsCalculator;
+import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NodeSimilarityCalculator;
 
 public class WhenNodesAreMatched extends WhenTreeNodesAreMatched {
 
@@ -50,6 +68,21 @@ public class WhenNodesAreMatched extends WhenTreeNodesAreMatched {
         assertNodesAreMatched(whileStatementLeft, whileStatementRight);
     }
 
+    @Test
+    public void alreadyMatchedNodesShouldMatchAgain() throws Exception {
+        Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length");
+        Node whileStatementRight = addToRight(WHILE_STATEMENT, "i < length");
+        addToNode(whileStatementLeft, METHOD_INVOCATION, "foo.bar();");
+        addToNode(whileStatementLeft, ASSIGNMENT, "aInt = 24;");
+        addToNode(whileStatementRight, METHOD_INVOCATION, "foo.bar();");
+        addToNode(whileStatementRight, ASSIGNMENT, "aInt = 24;");
+        createMatchSet();
+        fMatchSet = new HashSet<NodePair>();
+        fMatcher = MatchingFactory.getMatcher(fMatchSet);
+        createMatchSet();
+        assertNodesAreMatched(whileStatementLeft, whileStatementRight);
+    }
+
     @Test
     public void nodesWithDifferentLabelsShouldNotMatch() throws Exception {
         Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length");
@@ -99,6 +132,34 @@ public class WhenNodesAreMatched extends WhenTreeNodesAreMatched {
         assertNodesAreMatched(whileStatementLeft, whileStatementRight);
     }
 
+    @Test
+    public void changedNodesShouldMatchWithNodeCalculatorWithoutIndexedTrees() throws Exception {
+        Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length");
+        Node whileStatementRight = addToRight(WHILE_STATEMENT, "i < size");
+        addToNode(whileStatementLeft, METHOD_INVOCATION, "foo.bar();");
+        addToNode(whileStatementLeft, ASSIGNMENT, "aInt = 24;");
+        addToNode(whileStatementRight, METHOD_INVOCATION, "foo.bar();");
+        addToNode(whileStatementRight, ASSIGNMENT, "aInt = 24;");
+        NodeSimilarityCalculator nodeCalculator = new NodeSimilarityCalculator() {
+
+            private final ChawatheCalculator fCalculator = new ChawatheCalculator();
+
+            @Override
+            public double calculateSimilarity(Node left, Node right) {
+                return fCalculator.calculateSimilarity(left, right);
+            }
+
+            @Override
+            public void setLeafMatchSet(Set<? extends NodePair> leafMatchSet) {
+                fCalculator.setLeafMatchSet(leafMatchSet);
+            }
+        };
+        nodeCalculator.setLeafMatchSet(fMatchSet);
+        fMatcher.init(new NGramsCalculator(2), 0.6, nodeCalculator, 0.6);
+        createMatchSet();
+        assertNodesAreMatched(whileStatementLeft, whileStatementRight);
+    }
+
     @Test
     public void unchangedNodesAmongManyNodesShouldMatch() throws Exception {
         Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length");
@@ -113,6 +174,218 @@ public class WhenNodesAreMatched extends WhenTreeNodesAreMatched {
         assertNodesAreMatched(whileStatementLeft, whileStatementRight);
     }
 
+    @Test
+    public void identicalLeavesShouldMatchBeforeEquallySimilarLeaves() throws Exception {
+        Node methodInvocationLeft = addToLeft(METHOD_INVOCATION, "abab;");
+        Node similarMethodInvocationRight = addToRight(METHOD_INVOCATION, "ababab;");
+        Node methodInvocationRight = addToRight(METHOD_INVOCATION, "abab;");
+        createMatchSet();
+        assertLeavesAreMatched(methodInvocationLeft, methodInvocationRight);
+        assertLeavesAreNotMatched(methodInvocationLeft, similarMethodInvocationRight);
+    }
+
+    @Test
+    public void identicalSubtreesShouldMatchWithTheirDescendants() throws Exception {
+        Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length");
+        Node whileStatementRight = addToRight(WHILE_STATEMENT, "i < length");
+        Node methodInvocationLeft = addToNode(whileStatementLeft, METHOD_INVOCATION, "foo.bar();");
+        Node assignmentLeft = addToNode(whileStatementLeft, ASSIGNMENT, "aInt = 24;");
+        Node methodInvocationRight = addToNode(whileStatementRight, METHOD_INVOCATION, "foo.bar();");
+        Node assignmentRight = addToNode(whileStatementRight, ASSIGNMENT, "aInt = 24;");
+        fMatcher.enableIdenticalSubtreeMatching();
+        createMatchSet();
+        assertNodesAreMatched(whileStatementLeft, whileStatementRight);
+        assertLeavesAreMatched(methodInvocationLeft, methodInvocationRight);
+        assertLeavesAreMatched(assignmentLeft, assignmentRight);
+    }
+
+    @Test
+    public void changedSubtreesShouldMatchWhenIdenticalSubtreesAreMatched() throws Exception {
+        Node forStatementLeft = addToLeft(FOR_STATEMENT, "j < length");
+        Node forStatementRight = addToRight(FOR_STATEMENT, "j < length");
+        addToNode(forStatementLeft, METHOD_INVOCATION, "bar.foo();");
+        addToNode(forStatementRight, METHOD_INVOCATION, "bar.foo();");
+        Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length");
+        Node whileStatementRight = addToRight(WHILE_STATEMENT, "i < size");
+        addToNode(whileStatementLeft, METHOD_INVOCATION, "foo.bar();");
+        addToNode(whileStatementLeft, ASSIGNMENT, "aInt = 24;");
+        addToNode(whileStatementRight, METHOD_INVOCATION, "foo.bar();");
+        addToNode(whileStatementRight, ASSIGNMENT, "aInt = 24;");
+        fMatcher.enableIdenticalSubtreeMatching();
+        createMatchSet();
+        assertNodesAreMatched(forStatementLeft, forStatementRight);
+        assertNodesAreMatched(whileStatementLeft, whileStatementRight);
+    }
+
+    @Test
+    public void parallelLeafMatchingShouldMatchLikeSequentialLeafMatching() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length" + i);
+            Node whileStatementRight = addToRight(WHILE_STATEMENT, "i < length" + (i % 7));
+            for (int j = 0; j < 5; j++) {
+                addToNode(whileStatementLeft, METHOD_INVOCATION, "foo" + (i % 3) + ".bar" + j + "();");
+                addToNode(whileStatementRight, METHOD_INVOCATION, "foo" + (i % 5) + ".bar" + (j % 3) + "();");
+            }
+        }
+        createMatchSet();
+        Set<NodePair> sequentialMatchSet = fMatchSet;
+        fMatchSet = new HashSet<NodePair>();
+        fMatcher = MatchingFactory.getMatcher(fMatchSet);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            fMatcher.enableParallelLeafMatching(pool);
+            createMatchSet();
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(fMatchSet, is(sequentialMatchSet));
+    }
+
+    @Test
+    public void concurrentMatchingsOfTheSameLeftTreeShouldMatchLikeSequentialMatchings() throws Exception {
+        final Node otherRootRight = new Node(fRootRight.getLabel(), fRootRight.getValue());
+        for (int i = 0; i < 20; i++) {
+            Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length" + i);
+            Node whileStatementRight = addToRight(WHILE_STATEMENT, "i < length" + (i % 7));
+            Node otherWhileStatementRight = addToNode(otherRootRight, WHILE_STATEMENT, "j < size" + (i % 5));
+            for (int j = 0; j < 5; j++) {
+                addToNode(whileStatementLeft, METHOD_INVOCATION, "foo" + (i % 3) + ".bar" + j + "();");
+                addToNode(whileStatementRight, METHOD_INVOCATION, "foo" + (i % 5) + ".bar" + (j % 3) + "();");
+                addToNode(otherWhileStatementRight, ASSIGNMENT, "foo" + (i % 4) + " = bar" + (j % 2) + ";");
+            }
+        }
+        final List<Node> rights = new ArrayList<Node>();
+        rights.add(fRootRight);
+        rights.add(otherRootRight);
+        final List<Set<NodePair>> sequentialMatchSets = new ArrayList<Set<NodePair>>();
+        for (Node right : rights) {
+            sequentialMatchSets.add(match(fRootLeft, right, sequentialMatchSets.size()));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(rights.size());
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int k = 0; k < rights.size(); k++) {
+                final int index = k;
+                results.add(executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int run = 0; run < 100; run++) {
+                            if (!match(fRootLeft, rights.get(index), index).equals(sequentialMatchSets.get(index))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertThat(result.get(), is(true));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void changedLeavesShouldBeMatchedWithinTheirBlockWhenMatchingLocally() throws Exception {
+        Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length");
+        Node methodInvocationLeft = addToNode(whileStatementLeft, METHOD_INVOCATION, "foo.bar(1);");
+        Node forStatementRight = addToRight(FOR_STATEMENT, "j < length");
+        Node otherMethodInvocationRight = addToNode(forStatementRight, METHOD_INVOCATION, "foo.bar(3);");
+        Node whileStatementRight = addToRight(WHILE_STATEMENT, "i < length");
+        Node methodInvocationRight = addToNode(whileStatementRight, METHOD_INVOCATION, "foo.bar(2);");
+        fMatcher.enableLocalLeafMatching();
+        createMatchSet();
+        assertLeavesAreMatched(methodInvocationLeft, methodInvocationRight);
+        assertLeavesAreNotMatched(methodInvocationLeft, otherMethodInvocationRight);
+    }
+
+    @Test
+    public void duplicatedLeavesShouldBeMatchedByPositionWhenAnchoredBySequence() throws Exception {
+        addToLeft(ASSIGNMENT, "a = b;");
+        Node assignmentLeft = addToLeft(ASSIGNMENT, "x = 1;");
+        Node insertedAssignmentRight = addToRight(ASSIGNMENT, "x = 1;");
+        addToRight(ASSIGNMENT, "a = b;");
+        Node assignmentRight = addToRight(ASSIGNMENT, "x = 1;");
+        fMatcher = MatchingFactory.getSequenceAnchoredMatcher(fMatchSet);
+        createMatchSet();
+        assertLeavesAreMatched(assignmentLeft, assignmentRight);
+        assertLeavesAreNotMatched(assignmentLeft, insertedAssignmentRight);
+    }
+
+    @Test
+    public void exhaustedWorkBudgetShouldDegradeToIdenticalNodes() throws Exception {
+        Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length");
+        Node whileStatementRight = addToRight(WHILE_STATEMENT, "i < length");
+        addToNode(whileStatementLeft, METHOD_INVOCATION, "foo.bar();");
+        addToNode(whileStatementRight, METHOD_INVOCATION, "foo.bar();");
+        Node assignmentLeft = addToNode(whileStatementLeft, ASSIGNMENT, "aInt = 24;");
+        Node otherAssignmentLeft = addToNode(whileStatementLeft, ASSIGNMENT, "bInt = 24;");
+        Node assignmentRight = addToNode(whileStatementRight, ASSIGNMENT, "aInt = 42;");
+        Node otherAssignmentRight = addToNode(whileStatementRight, ASSIGNMENT, "bInt = 42;");
+        fMatcher.enableWorkBudget(1, 0);
+        createMatchSet();
+        assertThat(fMatcher.isDegraded(), is(true));
+        assertNodesAreMatched(whileStatementLeft, whileStatementRight);
+        assertLeavesAreNotMatched(assignmentLeft, assignmentRight);
+        assertLeavesAreNotMatched(otherAssignmentLeft, otherAssignmentRight);
+    }
+
+    @Test
+    public void exhaustedWorkBudgetShouldKeepTheMatchingOneToOne() throws Exception {
+        addToLeft(METHOD_INVOCATION, "foo();");
+        Node ifStatementLeft = addToLeft(IF_STATEMENT, "x");
+        addToNode(ifStatementLeft, METHOD_INVOCATION, "foo();");
+        addToNode(ifStatementLeft, METHOD_INVOCATION, "bar();");
+        addToLeft(METHOD_INVOCATION, "bazooka(1);");
+        addToLeft(METHOD_INVOCATION, "bazooka(2);");
+        Node ifStatementRight = addToRight(IF_STATEMENT, "x");
+        addToNode(ifStatementRight, METHOD_INVOCATION, "foo();");
+        addToNode(ifStatementRight, METHOD_INVOCATION, "bar();");
+        addToRight(METHOD_INVOCATION, "foo();");
+        addToRight(METHOD_INVOCATION, "bazooka(3);");
+        addToRight(METHOD_INVOCATION, "bazooka(4);");
+        fMatcher.enableWorkBudget(1, 0);
+        createMatchSet();
+        assertThat(fMatcher.isDegraded(), is(true));
+        Set<Node> lefts = new HashSet<Node>();
+        Set<Node> rights = new HashSet<Node>();
+        for (NodePair pair : fMatchSet) {
+            assertThat(lefts.add(pair.getLeft()), is(true));
+            assertThat(rights.add(pair.getRight()), is(true));
+        }
+    }
+
+    @Test
+    public void sufficientWorkBudgetShouldNotDegradeTheMatching() throws Exception {
+        Node whileStatementLeft = addToLeft(WHILE_STATEMENT, "i < length");
+        Node whileStatementRight = addToRight(WHILE_STATEMENT, "i < size");
+        addToNode(whileStatementLeft, METHOD_INVOCATION, "foo.bar();");
+        addToNode(whileStatementLeft, ASSIGNMENT, "aInt = 24;");
+        addToNode(whileStatementRight, METHOD_INVOCATION, "foo.bar();");
+        addToNode(whileStatementRight, ASSIGNMENT, "aInt = 24;");
+        fMatcher.enableWorkBudget(1000, 60000);
+        createMatchSet();
+        assertThat(fMatcher.isDegraded(), is(false));
+        assertNodesAreMatched(whileStatementLeft, whileStatementRight);
+    }
+
+    /**
+     * Matches the trees in a symbol table of their own, which is seeded such that the ids differ across the tables.
+     */
+    private static Set<NodePair> match(Node left, Node right, int seed) {
+        SymbolTable symbols = new SymbolTable();
+        for (int k = 0; k <= seed * 7; k++) {
+            symbols.idOf("seed" + k);
+        }
+        Set<NodePair> matchSet = new HashSet<NodePair>();
+        TreeMatcher matcher = MatchingFactory.getMatcher(matchSet);
+        matcher.setSymbolTable(symbols);
+        matcher.match(left, right);
+        return matchSet;
+    }
+
     private void assertNodesAreMatched(Node left, Node right) {
         assertThat(fMatchSet, hasItem(new NodePair(left, right)));
     }
@@ -121,4 +394,12 @@ public class WhenNodesAreMatched extends WhenTreeNodesAreMatched {
         assertThat(fMatchSet, not(hasItem(new NodePair(left, right))));
     }
 
+    private void assertLeavesAreMatched(Node left, Node right) {
+        assertThat(fMatchSet, hasItem((NodePair) new LeafPair(left, right, 1.0)));
+    }
+
+    private void assertLeavesAreNotMatched(Node left, Node right) {
+        assertThat(fMatchSet, not(hasItem((NodePair) new LeafPair(left, right, 1.0))));
+    }
+
 }
@@ -0,0 +1,89 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class WhenSequencesAreDiffed {
+
+    @Test
+    public void identicalSequencesShouldBeAligned() throws Exception {
+        int[] sequence = {1, 2, 3, 2, 1};
+        assertThat(SequenceDiff.align(sequence, sequence), is(new int[] {0, 1, 2, 3, 4}));
+    }
+
+    @Test
+    public void insertedTokensShouldNotBreakTheAlignment() throws Exception {
+        assertThat(SequenceDiff.align(new int[] {1, 2, 3, 4}, new int[] {1, 2, 9, 3, 4}), is(new int[] {0, 1, 3, 4}));
+    }
+
+    @Test
+    public void changedTokensShouldNotBeAligned() throws Exception {
+        assertThat(SequenceDiff.align(new int[] {1, 5, 3, 6, 4}, new int[] {1, 7, 3, 8, 4}), is(new int[] {
+                0,
+                -1,
+                2,
+                -1,
+                4}));
+    }
+
+    @Test
+    public void movedTokensShouldBeAlignedOnlyOnce() throws Exception {
+        assertThat(SequenceDiff.align(new int[] {5, 1, 2, 3, 6}, new int[] {7, 2, 3, 1, 8}), is(new int[] {
+                -1,
+                -1,
+                1,
+                2,
+                -1}));
+    }
+
+    @Test
+    public void alignedTokensShouldBeEqualAndIncreasing() throws Exception {
+        Random random = new Random(7);
+        for (int run = 0; run < 100; run++) {
+            int[] left = randomSequence(random);
+            int[] right = randomSequence(random);
+            int[] aligned = SequenceDiff.align(left, right);
+            int previous = -1;
+            for (int i = 0; i < left.length; i++) {
+                if (aligned[i] >= 0) {
+                    assertThat(right[aligned[i]], is(left[i]));
+                    assertThat(aligned[i] > previous, is(true));
+                    previous = aligned[i];
+                }
+            }
+        }
+    }
+
+    private static int[] randomSequence(Random random) {
+        int[] result = new int[random.nextInt(50)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = random.nextInt(10);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,80 @@
+package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
+
+/*
+ * #%L
+ * ChangeDistiller
+ * %%
+ * Copyright (C) 2011 - 2013 Software Architecture and Evolution Lab, Department of Informatics, UZH
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the time and the allocation of a single {@link NGramsCalculator} comparison of two statement-like strings.
+ * <p>
+ * Run with {@link #main(String[])} from the test classpath, which attaches the GC profiler; in steady state,
+ * <code>gc.alloc.rate.norm</code> is expected to be zero bytes per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NGramsBenchmark {
+
+    @Param({"2", "4"})
+    private int fN;
+
+    private NGramsCalculator fCalculator;
+    private String fLeft;
+    private String fRight;
+
+    @Setup
+    public void createStrings() {
+        fCalculator = new NGramsCalculator(fN);
+        fLeft = "result = calculator.calculateSimilarity(left.getValue(), right.getValue());";
+        fRight = "result = fCalculator.calculateSimilarity(leftNode.getValue(), rightNode.getValue());";
+    }
+
+    @Benchmark
+    public double calculateSimilarity() {
+        return fCalculator.calculateSimilarity(fLeft, fRight);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(NGramsBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+}
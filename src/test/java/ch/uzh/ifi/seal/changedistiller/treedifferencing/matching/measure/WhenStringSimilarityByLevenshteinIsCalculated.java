@@ -23,6 +23,9 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import java.util.Random;
+
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.LevenshteinSimilarityCalculator;
@@ -46,6 +49,81 @@ public class WhenStringSimilarityByLevenshteinIsCalculated {
         assertThat(getSimilarity(sa1, sa3), is((2d) / 11d));
     }
 
+    @Test
+    public void similarityShouldEqualSimilarityByCommonsLangDistance() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length < 300; length += 3) {
+            String left = createString(random, length);
+            String right = random.nextBoolean() ? mutate(random, left) : createString(random, random.nextInt(300));
+            double worstCaseDistance = Math.max(left.length(), right.length());
+            double expected = worstCaseDistance == 0d ? 0d
+                    : (worstCaseDistance - StringUtils.getLevenshteinDistance(left, right)) / worstCaseDistance;
+            assertThat(getSimilarity(left, right), is(expected));
+        }
+    }
+
+    @Test
+    public void thresholdShouldOnlyCutSimilaritiesBelowIt() throws Exception {
+        Random random = new Random(42);
+        double[] thresholds = {-1d, 0d, 0.3, 0.6, 0.8, 0.95, 1d, 2d};
+        for (int length = 0; length < 300; length += 3) {
+            String left = createString(random, length);
+            String right = random.nextBoolean() ? mutate(random, left) : createString(random, random.nextInt(300));
+            double similarity = getSimilarity(left, right);
+            for (double threshold : thresholds) {
+                double bounded = fLevenshtein.calculateSimilarity(left, right, threshold);
+                if (similarity >= threshold) {
+                    assertThat(bounded, is(similarity));
+                } else {
+                    assertThat(bounded < threshold, is(true));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batchShouldReturnThePairwiseSimilaritiesThatReachTheThreshold() throws Exception {
+        Random random = new Random(42);
+        String[] strings = new String[40];
+        for (int k = 0; k < strings.length; k++) {
+            strings[k] = k % 2 == 0 ? createString(random, random.nextInt(200)) : mutate(random, strings[k - 1]);
+        }
+        for (double threshold : new double[] {0d, 0.5, 0.9, 0.99}) {
+            WhenStringSimilarityIsCalculated.assertThatBatchEqualsPairwiseSimilarities(fLevenshtein, strings, threshold);
+        }
+    }
+
+    private static String createString(Random random, int length) {
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // few distinct chars, including ones beyond ASCII
+            result.append(random.nextInt(8) == 0 ? '\u00e9' : (char) ('a' + random.nextInt(4)));
+        }
+        return result.toString();
+    }
+
+    private static String mutate(Random random, String string) {
+        StringBuilder result = new StringBuilder(string);
+        for (int edits = random.nextInt(6); edits > 0; edits--) {
+            int position = random.nextInt(result.length() + 1);
+            switch (random.nextInt(3)) {
+                case 0:
+                    result.insert(position, 'x');
+                    break;
+                case 1:
+                    if (position < result.length()) {
+                        result.deleteCharAt(position);
+                    }
+                    break;
+                default:
+                    if (position < result.length()) {
+                        result.setCharAt(position, 'y');
+                    }
+            }
+        }
+        return result.toString();
+    }
+
     private Double getSimilarity(String sa1, String sa2) {
         return fLevenshtein.calculateSimilarity(sa1, sa2);
     }
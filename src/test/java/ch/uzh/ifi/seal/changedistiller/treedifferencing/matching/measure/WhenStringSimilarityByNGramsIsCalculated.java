@@ -20,6 +20,15 @@ package ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure;
  * #L%
  */
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.NGramsCalculator;
 
 public class WhenStringSimilarityByNGramsIsCalculated extends WhenStringSimilarityIsCalculated {
@@ -29,4 +38,77 @@ public class WhenStringSimilarityByNGramsIsCalculated extends WhenStringSimilari
         return new NGramsCalculator(2).calculateSimilarity(left, right);
     }
 
+    @Test
+    public void profilesShouldContainDistinctNGrams() throws Exception {
+        NGramsCalculator calculator = new NGramsCalculator(2);
+        assertThat(calculator.createProfile("abab").length, is(2));
+        assertThat(calculator.createProfile("a").length, is(0));
+    }
+
+    @Test
+    public void similarityOfProfilesShouldEqualSimilarityOfStrings() throws Exception {
+        String[] strings = {"change distiller", "distiller change", "merlin sofa", "aInt = 24;", "a", ""};
+        for (int n = 1; n <= 4; n++) {
+            NGramsCalculator calculator = new NGramsCalculator(n);
+            for (String left : strings) {
+                for (String right : strings) {
+                    if (!left.equals(right)) {
+                        assertThat(
+                                calculator.calculateSimilarity(
+                                        calculator.createProfile(left),
+                                        calculator.createProfile(right)),
+                                is(calculator.calculateSimilarity(left, right)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void similarityShouldBeDiceCoefficientOfNGramSets() throws Exception {
+        Random random = new Random(42);
+        for (int n = 1; n <= 4; n++) {
+            NGramsCalculator calculator = new NGramsCalculator(n);
+            for (int length = 1; length < 200; length += 7) {
+                // small alphabet, such that the strings share and repeat many ngrams
+                String left = createString(random, length);
+                String right = createString(random, length + random.nextInt(20));
+                assertThat(calculator.calculateSimilarity(left, right), is(diceCoefficient(left, right, n)));
+            }
+        }
+    }
+
+    private static String createString(Random random, int length) {
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            result.append((char) ('a' + random.nextInt(4)));
+        }
+        return result.toString();
+    }
+
+    private static double diceCoefficient(String left, String right, int n) {
+        Set<String> leftNGrams = createNGrams(left, n);
+        Set<String> rightNGrams = createNGrams(right, n);
+        int union = leftNGrams.size() + rightNGrams.size();
+        leftNGrams.retainAll(rightNGrams);
+        return leftNGrams.size() * 2.0 / union;
+    }
+
+    private static Set<String> createNGrams(String string, int n) {
+        Set<String> result = new HashSet<String>();
+        for (int i = 0; i < string.length() - (n - 1); i++) {
+            result.add(string.substring(i, i + n));
+        }
+        return result;
+    }
+
+    @Test
+    public void batchShouldReturnThePairwiseSimilaritiesThatReachTheThreshold() throws Exception {
+        String[] strings = {"change distiller", "distiller change", "merlin sofa", "aInt = 24;", "aInt = 42;", "a", ""};
+        for (int n = 1; n <= 5; n++) {
+            assertThatBatchEqualsPairwiseSimilarities(new NGramsCalculator(n), strings, 0.5);
+            assertThatBatchEqualsPairwiseSimilarities(new NGramsCalculator(n), strings, 0.0);
+        }
+    }
+
 }
@@ -24,6 +24,9 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.number.IsCloseTo.closeTo;
 
+import java.util.Hashtable;
+import java.util.Map;
+
 import org.junit.Test;
 
 import ch.uzh.ifi.seal.changedistiller.treedifferencing.matching.measure.TokenBasedCalculator;
@@ -40,9 +43,81 @@ public class WhenStringSimilarityByTokensIsCalculated extends WhenStringSimilari
         assertThat(calculateSimilarity("change distiller", "/* merlin distiller\n* change */"), is(closeTo(1.0, 0.5)));
     }
 
+    @Test
+    public void similarityShouldEqualSimilarityOfRegexSplitTokens() throws Exception {
+        String[] strings = {
+                "", " ", "  a", "a ", "a  b a", "change distiller", "// merlin distiller\n// change", "//", "////",
+                "///  x", "// a // b", "/* a */", "/***/", "*/", " */ */", "*/ x", "/* a */ b */", "/*/", "a*/b",
+                "/**\n * doc of change\n */", "x */ y", "/* a\tb\f*/", "/* */", "a * b / c"};
+        for (String separator : new String[] {"\\s+", ",\\s*"}) {
+            TokenBasedCalculator calculator = new TokenBasedCalculator(separator);
+            for (String left : strings) {
+                for (String right : strings) {
+                    assertThat(left + " | " + right, calculator.calculateSimilarity(left, right),
+                            is(calculateSimilarityOfRegexSplitTokens(left, right, separator)));
+                }
+            }
+        }
+    }
+
     @Override
     protected double calculateSimilarity(String left, String right) {
         return new TokenBasedCalculator().calculateSimilarity(left, right);
     }
 
+    private static double calculateSimilarityOfRegexSplitTokens(String left, String right, String separator) {
+        String leftString = left;
+        String rightString = right;
+        if (leftString.startsWith("//") || rightString.startsWith("//")) {
+            leftString = removeRegexOccurrences(leftString, "//\\s*");
+            rightString = removeRegexOccurrences(rightString, "//\\s*");
+        } else if (leftString.startsWith("/*") || rightString.startsWith("/*")) {
+            leftString = removeBlockCommentDelimiters(leftString);
+            rightString = removeBlockCommentDelimiters(rightString);
+        }
+        String[] leftTokens = leftString.split(separator);
+        String[] rightTokens = rightString.split(separator);
+        Map<String, Integer> tokens = new Hashtable<String, Integer>();
+        for (String token : leftTokens) {
+            tokens.put(token, tokens.containsKey(token) ? tokens.get(token) + 1 : 1);
+        }
+        double match = 0.0;
+        for (String token : rightTokens) {
+            if (tokens.containsKey(token) && (tokens.get(token) > 0)) {
+                tokens.put(token, tokens.get(token) - 1);
+                match++;
+            }
+        }
+        return match / Math.max(leftTokens.length, rightTokens.length);
+    }
+
+    private static String removeRegexOccurrences(String string, String regex) {
+        StringBuilder result = new StringBuilder();
+        for (String s : string.split(regex)) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+
+    private static String removeBlockCommentDelimiters(String string) {
+        String result = removeRegexOccurrences(string, "/\\*+\\s*");
+        try {
+            result = result.split("\\s*\\*/")[0];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            result = result.replace('/', ' ');
+        }
+        return result.replace('*', ' ').trim();
+    }
+
+    @Test
+    public void batchShouldReturnThePairwiseSimilaritiesThatReachTheThreshold() throws Exception {
+        String[] strings = {
+                "change distiller", "distiller change", "// merlin distiller\n// change", "/* change */", "a a b",
+                "b a", " ", ""};
+        for (String separator : new String[] {"\\s+", ",\\s*"}) {
+            assertThatBatchEqualsPairwiseSimilarities(new TokenBasedCalculator(separator), strings, 0.5);
+            assertThatBatchEqualsPairwiseSimilarities(new TokenBasedCalculator(separator), strings, 0.0);
+        }
+    }
+
 }
@@ -24,6 +24,8 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.number.IsCloseTo.closeTo;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
 public abstract class WhenStringSimilarityIsCalculated {
@@ -55,4 +57,23 @@ public abstract class WhenStringSimilarityIsCalculated {
         assertThat(calculateSimilarity("change distiller", "merlin distiller change"), is(closeTo(1.0, 0.5)));
     }
 
+    protected static void assertThatBatchEqualsPairwiseSimilarities(
+            BatchStringSimilarityCalculator calculator,
+            String[] strings,
+            double threshold) {
+        for (String query : strings) {
+            SimilarityHits hits = calculator.calculateSimilarities(query, Arrays.asList(strings), threshold);
+            int h = 0;
+            for (int k = 0; k < strings.length; k++) {
+                double similarity = calculator.calculateSimilarity(query, strings[k]);
+                if (similarity >= threshold) {
+                    assertThat(hits.getCandidate(h), is(k));
+                    assertThat(hits.getSimilarity(h), is(similarity));
+                    h++;
+                }
+            }
+            assertThat(hits.size(), is(h));
+        }
+    }
+
 }